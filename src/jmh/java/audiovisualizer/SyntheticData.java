@@ -0,0 +1,54 @@
+package audiovisualizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Inputs for the benchmarks that get made when the benchmark starts instead of being committed as media files.
+ */
+public class SyntheticData {
+
+    private SyntheticData() {}
+
+    public static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Little endian pcm of a sweeping sine with some noise on top, a bit under full scale.
+     * @param bitsPerSample 8, 16, 24 or 32
+     * @param numChannels number of channels
+     * @param frames number of samples per channel
+     */
+    public static ByteBuffer pcm(int bitsPerSample, int numChannels, int frames, double samplingFrequency, long seed) {
+        Random random = new Random(seed);
+        int bytesPerSample = bitsPerSample / 8;
+        ByteBuffer pcm = ByteBuffer.allocate(frames * numChannels * bytesPerSample).order(ByteOrder.LITTLE_ENDIAN);
+        double fullScale = Math.pow(2, bitsPerSample - 1) - 1;
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            double frequency = 100 + 5000 * (i % (int) samplingFrequency) / samplingFrequency;
+            phase += 2 * Math.PI * frequency / samplingFrequency;
+            for (int channel = 0; channel < numChannels; channel++) {
+                double value = 0.7 * Math.sin(phase + channel) + 0.05 * random.nextGaussian();
+                long sample = Math.round(Math.max(-1, Math.min(1, value)) * fullScale);
+                switch(bytesPerSample) {
+                    case 1 -> pcm.put((byte) (sample + 128));
+                    case 2 -> pcm.putShort((short) sample);
+                    case 3 -> {
+                        pcm.put((byte) sample);
+                        pcm.put((byte) (sample >> 8));
+                        pcm.put((byte) (sample >> 16));
+                    }
+                    case 4 -> pcm.putInt((int) sample);
+                    default -> throw new IllegalArgumentException("Unsupported " + bitsPerSample + " bits per sample.");
+                }
+            }
+        }
+        return pcm.flip();
+    }
+
+}
@@ -0,0 +1,31 @@
+package audiovisualizer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the work each benchmark call does so JMH reports it as a rate next to the ops/s,
+ * which gives samples/s and MB/s that can be compared between benchmarks that do different amounts of work per call.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ThroughputCounters {
+
+    public long samples;
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        samples = 0;
+        megabytes = 0;
+    }
+
+    public void add(long samples, long bytes) {
+        this.samples += samples;
+        this.megabytes += bytes / 1_000_000.0;
+    }
+
+}
@@ -0,0 +1,65 @@
+package audiovisualizer.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import audiovisualizer.SyntheticData;
+import audiovisualizer.ThroughputCounters;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AudioMagicianBenchmark {
+
+    private static final double samplingFrequency = 48000;
+    private static final int numChannels = 2;
+    private static final int frames = (int) samplingFrequency * 10;
+
+    @Param({"8", "16", "24", "32"})
+    public int bitsPerSample;
+
+    private final AudioMagician magician = new AudioMagician();
+    private ByteBuffer pcm;
+
+    @Setup
+    public void setup() {
+        pcm = SyntheticData.pcm(bitsPerSample, numChannels, frames, samplingFrequency, 11);
+    }
+
+    /**
+     * 10 seconds of stereo, samples are per channel.
+     */
+    @Benchmark
+    public int[][] parsePCMData(ThroughputCounters counters) {
+        int[][] parsed = magician.parsePCMData(pcm, bitsPerSample, numChannels, ByteOrder.LITTLE_ENDIAN);
+        counters.add(frames, pcm.remaining());
+        return parsed;
+    }
+
+    /**
+     * Everything from pcm bytes to loudness per window.
+     */
+    @Benchmark
+    public double[] getAudioVolume(ThroughputCounters counters) {
+        double[] volume = magician.getAudioVolume(pcm, samplingFrequency, bitsPerSample, numChannels);
+        counters.add(frames, pcm.remaining());
+        return volume;
+    }
+
+}
@@ -0,0 +1,70 @@
+package audiovisualizer.mp3.decoding;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import audiovisualizer.SyntheticData;
+import audiovisualizer.ThroughputCounters;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitReaderBenchmark {
+
+    @Param({"1", "4", "8", "13", "24"})
+    public int bits;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = SyntheticData.randomBytes(1 << 16, 42);
+    }
+
+    /**
+     * Reads a 64 KB stream n bits at a time, samples are the number of reads.
+     */
+    @Benchmark
+    public long readNBits(ThroughputCounters counters) {
+        BitReader stream = new BitReader(ByteBuffer.wrap(data));
+        long reads = (long) data.length * 8 / bits - 1;
+        long sum = 0;
+        for (long i = 0; i < reads; i++) {
+            sum += stream.readNBits(bits);
+        }
+        counters.add(reads, data.length);
+        return sum;
+    }
+
+    /**
+     * Peeks 16 bits and steps a byte forward, which is how the decoder hunts for sync words.
+     */
+    @Benchmark
+    public long syncScan(ThroughputCounters counters) {
+        BitReader stream = new BitReader(ByteBuffer.wrap(data));
+        long sum = 0;
+        int word;
+        while ((word = stream.peekBits(16)) != -1) {
+            sum += word;
+            stream.skip(1);
+        }
+        counters.add(data.length, data.length);
+        return sum;
+    }
+
+}
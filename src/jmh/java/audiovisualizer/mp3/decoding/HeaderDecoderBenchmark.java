@@ -0,0 +1,64 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import audiovisualizer.ThroughputCounters;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeaderDecoderBenchmark {
+
+    private static final int headers = 4096;
+
+    private final HeaderDecoder decoder = new HeaderDecoder();
+    private byte[] data;
+
+    /**
+     * Back to back headers without the first sync byte, which is where the decoder starts reading a header.
+     * A few different bitrates, modes and padding like a real VBR file has.
+     */
+    @Setup
+    public void setup() {
+        int[][] variants = {
+            {0xFB, 0x90, 0x64}, // MPEG 1 Layer III 128 kbit/s 44.1 kHz joint stereo
+            {0xFB, 0xB2, 0x44}, // 192 kbit/s padded
+            {0xFB, 0x50, 0xC4}, // 64 kbit/s mono
+            {0xFD, 0xE4, 0x00}, // Layer II 384 kbit/s 48 kHz stereo
+        };
+        data = new byte[headers * 3];
+        for (int i = 0; i < headers; i++) {
+            int[] header = variants[i % variants.length];
+            for (int j = 0; j < 3; j++) {
+                data[i * 3 + j] = (byte) header[j];
+            }
+        }
+    }
+
+    @Benchmark
+    public void readFrameHeader(ThroughputCounters counters, Blackhole blackhole) throws IOException {
+        BitReader stream = new BitReader(ByteBuffer.wrap(data));
+        for (int i = 0; i < headers; i++) {
+            blackhole.consume(decoder.readFrameHeader(stream));
+        }
+        counters.add(headers, data.length);
+    }
+
+}
@@ -0,0 +1,71 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import audiovisualizer.ThroughputCounters;
+import audiovisualizer.mp3.MP3;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MP3DecoderBenchmark {
+
+    private static final int frames = 1000; // 8 seconds at 48 kHz
+
+    private File layer1;
+    private File layer2;
+
+    @Setup
+    public void setup() throws IOException {
+        layer1 = File.createTempFile("layer1", ".mp2");
+        Files.write(layer1.toPath(), SyntheticMP3.layer1(frames, 7));
+        layer2 = File.createTempFile("layer2", ".mp2");
+        Files.write(layer2.toPath(), SyntheticMP3.layer2(frames, 7));
+    }
+
+    @TearDown
+    public void tearDown() {
+        layer1.delete();
+        layer2.delete();
+    }
+
+    /**
+     * Whole file decode of a Layer I stream, which goes through readAudioDataLayer1 for every frame.
+     * Samples are per channel.
+     */
+    @Benchmark
+    public MP3 decodeLayer1(ThroughputCounters counters) {
+        MP3 mp3 = new MP3Decoder().decode(layer1);
+        counters.add(frames * 384L, layer1.length());
+        return mp3;
+    }
+
+    /**
+     * Whole file decode of a Layer II stream including the synthesis filterbank, 24 seconds of audio.
+     */
+    @Benchmark
+    public MP3 decodeLayer2(ThroughputCounters counters) {
+        MP3 mp3 = new MP3Decoder().decode(layer2);
+        counters.add(frames * 1152L, layer2.length());
+        return mp3;
+    }
+
+}
@@ -0,0 +1,82 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import audiovisualizer.ThroughputCounters;
+import audiovisualizer.mp3.MP3;
+
+/**
+ * How decoding scales with threads, 1 thread is close to {@link MP3Decoder} plus the cost of splitting into segments.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelMP3DecoderBenchmark {
+
+    private static final int frames = 4000; // 96 seconds at 48 kHz
+    private static final int albumTracks = 4;
+
+    @Param({"1", "2", "4", "8"})
+    private int threads;
+
+    private ParallelMP3Decoder decoder;
+    private List<File> album;
+
+    @Setup
+    public void setup() throws IOException {
+        decoder = new ParallelMP3Decoder(threads);
+        album = new ArrayList<>();
+        for (int track = 0; track < albumTracks; track++) {
+            File file = File.createTempFile("layer2", ".mp2");
+            Files.write(file.toPath(), SyntheticMP3.layer2(frames, track));
+            album.add(file);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        decoder.close();
+        for (File file : album) {
+            FrameIndexer.sidecarFile(file).delete();
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public MP3 decodeFile(ThroughputCounters counters) {
+        MP3 mp3 = decoder.decode(album.get(0));
+        counters.add(frames * 1152L, album.get(0).length());
+        return mp3;
+    }
+
+    @Benchmark
+    public List<MP3> decodeAlbum(ThroughputCounters counters) {
+        List<MP3> mp3s = decoder.decode(album);
+        for (File file : album) {
+            counters.add(frames * 1152L, file.length());
+        }
+        return mp3s;
+    }
+
+}
@@ -0,0 +1,163 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Writes made up but valid MPEG audio frames for the decoder benchmarks.
+ */
+public class SyntheticMP3 {
+
+    /**Layer I frame at 384 kbit/s and 48 kHz, no padding is ever needed at 48 kHz*/
+    public static final int layer1FrameLength = 12 * 384000 / 48000 * 4;
+
+    /**Layer II frame at 384 kbit/s and 48 kHz*/
+    public static final int layer2FrameLength = 144 * 384000 / 48000;
+
+    private SyntheticMP3() {}
+
+    /**
+     * Layer I, 48 kHz, 384 kbit/s, stereo, no CRC. Bit allocations are random with as many subbands filled as fit in the frame.
+     * @param frames number of frames
+     * @return the whole stream
+     */
+    public static byte[] layer1(int frames, long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int frame = 0; frame < frames; frame++) {
+            BitWriter writer = new BitWriter(layer1FrameLength);
+            writer.write(0xFFFFC400, 32); // sync, MPEG 1, Layer I, no CRC, 384 kbit/s, 48 kHz, stereo
+            int bitsLeft = layer1FrameLength * 8 - 32 - 32 * 2 * 4;
+            int[][] allocation = new int[2][32];
+            for (int subBand = 0; subBand < 32; subBand++) {
+                for (int channel = 0; channel < 2; channel++) {
+                    int bits = random.nextInt(15); // 15 is forbidden
+                    int cost = bits == 0 ? 0 : 6 + 12 * (bits + 1);
+                    if (cost <= bitsLeft) {
+                        allocation[channel][subBand] = bits;
+                        bitsLeft -= cost;
+                    }
+                    writer.write(allocation[channel][subBand], 4);
+                }
+            }
+            for (int subBand = 0; subBand < 32; subBand++) {
+                for (int channel = 0; channel < 2; channel++) {
+                    if (allocation[channel][subBand] != 0) writer.write(random.nextInt(63), 6);
+                }
+            }
+            for (int s = 0; s < 12; s++) {
+                for (int subBand = 0; subBand < 32; subBand++) {
+                    for (int channel = 0; channel < 2; channel++) {
+                        int bits = allocation[channel][subBand];
+                        if (bits != 0) writer.write(random.nextInt((1 << (bits + 1)) - 1), bits + 1); // all ones is forbidden
+                    }
+                }
+            }
+            out.writeBytes(writer.bytes());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Layer II, 48 kHz, 384 kbit/s, stereo, no CRC, which uses allocation table B.2a. Allocations are random with as many subbands filled as fit.
+     * @param frames number of frames
+     * @return the whole stream
+     */
+    public static byte[] layer2(int frames, long seed) {
+        Random random = new Random(seed);
+        int[][] levels = { // Table B.2a
+            {0, 3, 7, 15, 31, 63, 127, 255, 511, 1023, 2047, 4095, 8191, 16383, 32767, 65535},
+            {0, 3, 5, 7, 9, 15, 31, 63, 127, 255, 511, 1023, 2047, 4095, 8191, 65535},
+            {0, 3, 5, 7, 9, 15, 31, 65535},
+            {0, 3, 5, 65535}
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int frame = 0; frame < frames; frame++) {
+            BitWriter writer = new BitWriter(layer2FrameLength);
+            writer.write(0xFFFDE400, 32); // sync, MPEG 1, Layer II, no CRC, 384 kbit/s, 48 kHz, stereo
+            int[][] allocation = new int[2][27];
+            int[][] steps = new int[2][27];
+            int bitsLeft = layer2FrameLength * 8 - 32 - 2 * (3 * 4 + 8 * 4 + 12 * 3 + 4 * 2);
+            for (int subBand = 0; subBand < 27; subBand++) {
+                int row = subBand < 3 ? 0 : subBand < 11 ? 1 : subBand < 23 ? 2 : 3;
+                int bits = row < 2 ? 4 : row == 2 ? 3 : 2;
+                for (int channel = 0; channel < 2; channel++) {
+                    int index = random.nextInt(levels[row].length);
+                    int cost = index == 0 ? 0 : 2 + 18 + 12 * sampleBits(levels[row][index]);
+                    if (cost <= bitsLeft) {
+                        allocation[channel][subBand] = index;
+                        steps[channel][subBand] = levels[row][index];
+                        bitsLeft -= cost;
+                    }
+                    writer.write(allocation[channel][subBand], bits);
+                }
+            }
+            for (int subBand = 0; subBand < 27; subBand++) {
+                for (int channel = 0; channel < 2; channel++) {
+                    if (allocation[channel][subBand] != 0) writer.write(0, 2); // scfsi 0, all 3 scalefactors sent
+                }
+            }
+            for (int subBand = 0; subBand < 27; subBand++) {
+                for (int channel = 0; channel < 2; channel++) {
+                    if (allocation[channel][subBand] == 0) continue;
+                    for (int i = 0; i < 3; i++) {
+                        writer.write(random.nextInt(63), 6);
+                    }
+                }
+            }
+            for (int granule = 0; granule < 12; granule++) {
+                for (int subBand = 0; subBand < 27; subBand++) {
+                    for (int channel = 0; channel < 2; channel++) {
+                        int step = steps[channel][subBand];
+                        if (step == 0) continue;
+                        if (step == 3 || step == 5 || step == 9) {
+                            writer.write(random.nextInt(step * step * step), sampleBits(step));
+                        } else {
+                            for (int s = 0; s < 3; s++) {
+                                writer.write(random.nextInt(step), sampleBits(step) / 3);
+                            }
+                        }
+                    }
+                }
+            }
+            out.writeBytes(writer.bytes());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Bits taken by 3 samples with a number of steps.
+     */
+    private static int sampleBits(int steps) {
+        return switch(steps) {
+            case 3 -> 5;
+            case 5 -> 7;
+            case 9 -> 10;
+            default -> 3 * Integer.numberOfTrailingZeros(steps + 1);
+        };
+    }
+
+    private static class BitWriter {
+
+        private final byte[] bytes;
+        private int bitPosition = 0;
+
+        private BitWriter(int length) {
+            bytes = new byte[length];
+        }
+
+        private void write(int value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                if (((value >>> i) & 1) != 0) {
+                    bytes[bitPosition >> 3] |= 0x80 >>> (bitPosition & 7);
+                }
+                bitPosition++;
+            }
+        }
+
+        private byte[] bytes() {
+            return bytes;
+        }
+    }
+
+}
@@ -53,7 +53,7 @@ public class Main extends Application {
     @Override
     public void stop() throws Exception {
         super.stop();
-        chart.service.shutdownNow();
+        chart.close();
     }
 
 }
@@ -0,0 +1,260 @@
+package audiovisualizer.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+
+import audiovisualizer.audio.AudioMagician.Weighting;
+
+/**
+ * Keeps the decoded pcm and loudness of the last few tracks that were opened so switching back to one is instant. <p>
+ * Whole results stay in memory in least recently used order until they take up more than a number of bytes.
+ * The loudness also gets saved to a directory that lasts between sessions, so a track that was opened before only has to be decoded again,
+ * not analyzed. The directory has its own size limit and the files in it that were used longest ago get deleted first. <p>
+ * Results are for a track's {@link FileIdentity} and the analysis settings, so a track that changed or different settings is a miss,
+ * and anything saved for an older version of a track gets thrown away.
+ */
+public class AnalysisCache {
+
+    /**
+     * A decoded track.
+     * @param pcm interleaved little endian pcm, 8 bit samples are unsigned
+     */
+    public record Decoded(ByteBuffer pcm, int sampleRate, int bitsPerSample, int numChannels) {}
+
+    /**
+     * A decoded track and its loudness.
+     * @param loudness loudness in LUFS of each window, see {@link AudioMagician#getAudioVolume(ByteBuffer, double, int, int, double, double, Weighting)}
+     */
+    public record Analysis(Decoded decoded, double[] loudness) {
+        long bytes() {
+            return decoded.pcm().capacity() + 8L * loudness.length;
+        }
+    }
+
+    /**
+     * Counters since the cache was made. A disk hit still had to decode the track.
+     */
+    public record Stats(long memoryHits, long diskHits, long misses, long memoryEvictions, long diskEvictions, long memoryBytes) {}
+
+    private record Key(String path, FileIdentity identity, double windowSeconds, double hopSeconds, Weighting weighting) {}
+
+    private static final int magic = 0x4C554653; // "LUFS"
+    private static final int formatVersion = 1;
+    public static final long defaultMemoryBytes = 512L << 20;
+    public static final long defaultDiskBytes = 64L << 20;
+
+    private final ParallelAnalyzer analyzer;
+    private final File directory;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<Key, Analysis> memory = new LinkedHashMap<>(16, 0.75f, true); // Least recently used first
+    private long memoryBytes = 0;
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong memoryEvictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    /**
+     * Keeps up to 512 MB in memory and 64 MB in .audiovisualizer/cache in the user's home directory.
+     */
+    public AnalysisCache(ParallelAnalyzer analyzer) {
+        this(analyzer, new File(System.getProperty("user.home"), ".audiovisualizer" + File.separator + "cache"), defaultMemoryBytes, defaultDiskBytes);
+    }
+
+    /**
+     * @param directory where loudness gets saved, it's made if it doesn't exist
+     * @param maxMemoryBytes bytes of pcm and loudness to keep in memory, a track bigger than this on its own doesn't get kept
+     * @param maxDiskBytes bytes of files to keep in the directory
+     */
+    public AnalysisCache(ParallelAnalyzer analyzer, File directory, long maxMemoryBytes, long maxDiskBytes) {
+        if (maxMemoryBytes < 0 || maxDiskBytes < 0) throw new IllegalArgumentException("Cache size is < 0.");
+        this.analyzer = analyzer;
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Gets a track's pcm and loudness from memory, or decodes it and gets its loudness from disk, or decodes and analyzes it.
+     * @param decoder decodes the track on a miss
+     */
+    public Analysis get(File file, Function<File, Decoded> decoder, double windowSeconds, double hopSeconds, Weighting weighting) {
+        FileIdentity identity;
+        try {
+            identity = FileIdentity.of(file);
+        } catch (ClosedByInterruptException e) {
+            throw new IllegalStateException("Interrupted while caching.", e);
+        } catch (IOException e) {
+            System.out.println("Caching error with file " + file.getAbsolutePath());
+            e.printStackTrace();
+            Analysis analysis = analyze(decoder.apply(file), windowSeconds, hopSeconds, weighting);
+            misses.incrementAndGet();
+            return analysis;
+        }
+        Key key = new Key(file.getAbsoluteFile().toPath().normalize().toString(), identity, windowSeconds, hopSeconds, weighting);
+        synchronized (memory) {
+            Analysis analysis = memory.get(key);
+            if (analysis != null) {
+                memoryHits.incrementAndGet();
+                return analysis;
+            }
+        }
+        Decoded decoded = decoder.apply(file);
+        File saved = savedFile(key);
+        double[] loudness = readSaved(saved, key);
+        Analysis analysis;
+        if (loudness != null) {
+            diskHits.incrementAndGet();
+            saved.setLastModified(System.currentTimeMillis()); // Marks it as recently used
+            analysis = new Analysis(decoded, loudness);
+        } else {
+            analysis = analyze(decoded, windowSeconds, hopSeconds, weighting);
+            misses.incrementAndGet();
+            save(saved, key, analysis.loudness());
+        }
+        remember(key, analysis);
+        return analysis;
+    }
+
+    public Stats stats() {
+        synchronized (memory) {
+            return new Stats(memoryHits.get(), diskHits.get(), misses.get(), memoryEvictions.get(), diskEvictions.get(), memoryBytes);
+        }
+    }
+
+    /**
+     * Empties the memory part of the cache, what's saved to disk stays.
+     */
+    public void clearMemory() {
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+    }
+
+    private Analysis analyze(Decoded decoded, double windowSeconds, double hopSeconds, Weighting weighting) {
+        double[] loudness = analyzer.getAudioVolume(decoded.pcm(), decoded.sampleRate(), decoded.bitsPerSample(), decoded.numChannels(),
+            windowSeconds, hopSeconds, weighting);
+        return new Analysis(decoded, loudness);
+    }
+
+    /**
+     * Puts a result in memory, taking out anything for an older version of the same track and then the least recently used results until it fits.
+     */
+    private void remember(Key key, Analysis analysis) {
+        long bytes = analysis.bytes();
+        if (bytes > maxMemoryBytes) return;
+        synchronized (memory) {
+            Iterator<Map.Entry<Key, Analysis>> entries = memory.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Key, Analysis> entry = entries.next();
+                if (entry.getKey().path().equals(key.path()) && !entry.getKey().identity().equals(key.identity())) {
+                    memoryBytes -= entry.getValue().bytes();
+                    entries.remove();
+                }
+            }
+            entries = memory.entrySet().iterator();
+            while (memoryBytes + bytes > maxMemoryBytes && entries.hasNext()) {
+                memoryBytes -= entries.next().getValue().bytes();
+                entries.remove();
+                memoryEvictions.incrementAndGet();
+            }
+            Analysis replaced = memory.put(key, analysis);
+            if (replaced != null) memoryBytes -= replaced.bytes();
+            memoryBytes += bytes;
+        }
+    }
+
+    /**
+     * The file for a track and settings, versions of the track share it so a new version replaces the old one.
+     */
+    private File savedFile(Key key) {
+        String name = key.path() + '|' + key.windowSeconds() + '|' + key.hopSeconds() + '|' + key.weighting();
+        CRC32C crc = new CRC32C();
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+        return new File(directory, String.format("%08x%08x.lufs", name.hashCode(), crc.getValue()));
+    }
+
+    /**
+     * @return the saved loudness, or null if there isn't any or it's for something else
+     */
+    private double[] readSaved(File saved, Key key) {
+        if (!saved.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(saved)))) {
+            if (in.readInt() != magic || in.readInt() != formatVersion) return null;
+            if (!in.readUTF().equals(key.path()) || !FileIdentity.read(in).equals(key.identity())) return null;
+            if (in.readDouble() != key.windowSeconds() || in.readDouble() != key.hopSeconds() || !in.readUTF().equals(key.weighting().name())) return null;
+            int count = in.readInt();
+            if (count < 0) return null;
+            double[] loudness = new double[count];
+            for (int i = 0; i < count; i++) {
+                loudness[i] = in.readDouble();
+            }
+            return loudness;
+        } catch (IOException e) {
+            return null; // Cut off or broken, it'll be analyzed again
+        }
+    }
+
+    private void save(File saved, Key key, double[] loudness) {
+        if (8L * loudness.length > maxDiskBytes) return;
+        directory.mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(saved)))) {
+            out.writeInt(magic);
+            out.writeInt(formatVersion);
+            out.writeUTF(key.path());
+            key.identity().write(out);
+            out.writeDouble(key.windowSeconds());
+            out.writeDouble(key.hopSeconds());
+            out.writeUTF(key.weighting().name());
+            out.writeInt(loudness.length);
+            for (double value : loudness) {
+                out.writeDouble(value);
+            }
+        } catch (IOException e) {
+            System.out.println("Couldn't save the loudness of " + key.path() + " to " + saved.getAbsolutePath());
+            return;
+        }
+        trimDirectory(saved);
+    }
+
+    /**
+     * Deletes the least recently used files until the directory fits, never the one that was just saved.
+     */
+    private synchronized void trimDirectory(File keep) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".lufs"));
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length && total > maxDiskBytes; i++) {
+            if (files[i].equals(keep)) continue;
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+                diskEvictions.incrementAndGet();
+            }
+        }
+    }
+
+}
@@ -1,60 +1,105 @@
 package audiovisualizer.audio;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.SourceDataLine;
+import java.nio.ByteBuffer;
 
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 
-public class AudioPlayer {
+/**
+ * Plays decoded pcm through one long lived {@link PlaybackEngine}, or a file through a JavaFX {@link MediaPlayer}.
+ * Only one thing plays at a time, starting something stops whatever was playing and the last media player gets disposed. <p>
+ * The position, taps and latency all come from the engine, so only pcm can drive a picture, a file played through a media player is just heard.
+ * The media player is only touched on the JavaFX thread.
+ */
+public class AudioPlayer implements AutoCloseable {
 
-    private List<MediaPlayer> players = new ArrayList<>();
+    private final PlaybackEngine engine = new PlaybackEngine();
+    private MediaPlayer current;
 
     /**
-     * Plays PCM audio in a new thread.
-     * @param PCM data
+     * Plays PCM audio on the playback engine's thread.
+     * @param PCM little endian data
      * @param sampleRate number of samples per second
      * @param bitsPerSample bits for each value of a sample
      * @param numChannels number of channels pcm data is broken up into. 1 = mono, ect.
-     * @param loopAmount number of times you want audio to play
      */
     public void playPCMData(byte[] PCM, int sampleRate, int bitsPerSample, int numChannels) {
-        try {
-            ExecutorService service = Executors.newSingleThreadExecutor();
-            AudioFormat audioFormat = new AudioFormat(sampleRate, bitsPerSample, numChannels, true, false);
-            SourceDataLine line = AudioSystem.getSourceDataLine(audioFormat);
-            line.open(audioFormat);
-            line.start();
-            service.execute(() -> {
-                line.write(PCM, 0, PCM.length);
-                line.drain();
-                line.stop();
-                line.close();
-            });
-        } catch (LineUnavailableException e) {
-            e.printStackTrace();
-        }
+        playPCM(ByteBuffer.wrap(PCM), sampleRate, bitsPerSample, numChannels);
+    }
+
+    /**
+     * Plays PCM audio on the playback engine's thread, the buffer isn't copied so it can't change while it plays.
+     * @param pcm little endian data from its position to its limit
+     */
+    public void playPCM(ByteBuffer pcm, int sampleRate, int bitsPerSample, int numChannels) {
+        stopMediaPlayer();
+        engine.play(pcm, sampleRate, bitsPerSample, numChannels);
     }
 
     public void playAudioFile(File file) {
+        engine.stop();
+        stopMediaPlayer();
         Media media = new Media(file.toURI().toString());
         MediaPlayer player = new MediaPlayer(media);
-        players.add(player);
+        current = player;
         player.play();
     }
 
-    public void stopMediaPlayers() {
-        for (MediaPlayer mediaPlayer : players) {
-            mediaPlayer.stop();
-        }
+    /**
+     * Adds a tap that gets every block of pcm as it's played, see {@link PlaybackEngine.Tap}. Files played with a media player don't go through it.
+     */
+    public void addTap(PlaybackEngine.Tap tap) {
+        engine.addTap(tap);
+    }
+
+    public void removeTap(PlaybackEngine.Tap tap) {
+        engine.removeTap(tap);
+    }
+
+    /**
+     * Whether pcm is still coming out of the engine's line.
+     */
+    public boolean isPlaying() {
+        return engine.isPlaying();
+    }
+
+    /**
+     * Seconds into the pcm that's playing, from the line's frame position so it can't drift from the audio.
+     */
+    public double positionSeconds() {
+        return engine.positionSeconds();
+    }
+
+    /**
+     * How long pcm takes to be heard after the taps get it, see {@link PlaybackEngine#latencySeconds()}.
+     */
+    public double outputLatencySeconds() {
+        return engine.latencySeconds();
+    }
+
+    /**
+     * Stops whatever is playing.
+     */
+    public void stop() {
+        engine.stop();
+        stopMediaPlayer();
+    }
+
+    private void stopMediaPlayer() {
+        if (current == null) return;
+        current.stop();
+        current.dispose();
+        current = null;
+    }
+
+    /**
+     * Stops playing and ends the playback engine's threads.
+     */
+    @Override
+    public void close() {
+        stopMediaPlayer();
+        engine.close();
     }
 
 }
@@ -0,0 +1,44 @@
+package audiovisualizer.audio;
+
+/**
+ * Second order IIR filter in transposed direct form II, coefficients are normalized so a0 is 1. <p>
+ * {@link} https://en.wikipedia.org/wiki/Digital_biquad_filter#Transposed_direct_forms
+ */
+public class Biquad {
+
+    private final double b0, b1, b2, a1, a2;
+    private double s1 = 0, s2 = 0;
+
+    public Biquad(double b0, double b1, double b2, double a1, double a2) {
+        this.b0 = b0;
+        this.b1 = b1;
+        this.b2 = b2;
+        this.a1 = a1;
+        this.a2 = a2;
+    }
+
+    /**
+     * Filters samples in place, the filter's state carries over to the next call so a signal can be given a block at a time.
+     * @param samples to filter
+     * @param offset index of the first sample
+     * @param length number of samples
+     */
+    public void process(double[] samples, int offset, int length) {
+        double s1 = this.s1, s2 = this.s2;
+        for (int i = offset; i < offset + length; i++) {
+            double in = samples[i];
+            double out = b0 * in + s1;
+            s1 = b1 * in - a1 * out + s2;
+            s2 = b2 * in - a2 * out;
+            samples[i] = out;
+        }
+        this.s1 = s1;
+        this.s2 = s2;
+    }
+
+    public void reset() {
+        s1 = 0;
+        s2 = 0;
+    }
+
+}
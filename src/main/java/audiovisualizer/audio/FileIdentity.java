@@ -0,0 +1,57 @@
+package audiovisualizer.audio;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Tells whether a file is still the same file that something was worked out from. The size and modified time catch almost every change,
+ * and a hash of a few pieces of the contents catches files that got replaced by something the same size with the time kept,
+ * like a copy that keeps timestamps. Only the start, middle and end get hashed so it's quick no matter how big the file is.
+ */
+public record FileIdentity(long length, long lastModified, long contentHash) {
+
+    private static final int pieceLength = 64 * 1024;
+
+    public static FileIdentity of(File file) throws IOException {
+        return new FileIdentity(file.length(), file.lastModified(), contentHash(file));
+    }
+
+    /**
+     * CRC32C of the first, middle and last 64 KB of a file, or all of it if it's smaller than that.
+     */
+    public static long contentHash(File file) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean small = size <= 3L * pieceLength;
+            ByteBuffer piece = ByteBuffer.allocate(small ? (int) size : pieceLength);
+            long[] starts = small ? new long[] {0} : new long[] {0, size / 2 - pieceLength / 2, size - pieceLength};
+            for (long start : starts) {
+                piece.clear();
+                while (piece.hasRemaining()) {
+                    if (channel.read(piece, start + piece.position()) == -1) break;
+                }
+                piece.flip();
+                crc.update(piece);
+            }
+        }
+        return crc.getValue();
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(length);
+        out.writeLong(lastModified);
+        out.writeLong(contentHash);
+    }
+
+    public static FileIdentity read(DataInput in) throws IOException {
+        return new FileIdentity(in.readLong(), in.readLong(), in.readLong());
+    }
+
+}
@@ -0,0 +1,60 @@
+package audiovisualizer.audio;
+
+/**
+ * The K-weighting curve from ITU-R BS.1770, a high shelf that models the head followed by a high pass (the RLB curve).
+ * The coefficients for any sampling frequency come from the analog prototypes that give the ones in the standard at 48 kHz. <p>
+ * {@link} https://www.itu.int/rec/R-REC-BS.1770
+ * {@link} https://github.com/csteinmetz1/pyloudnorm
+ */
+public class KWeightingFilter {
+
+    private final Biquad shelf;
+    private final Biquad highPass;
+
+    /**
+     * @param samplingFrequency in Hz
+     */
+    public KWeightingFilter(double samplingFrequency) {
+        shelf = highShelf(samplingFrequency);
+        highPass = highPass(samplingFrequency);
+    }
+
+    /**
+     * Filters samples of one channel in place, state carries over between calls.
+     */
+    public void process(double[] samples, int offset, int length) {
+        shelf.process(samples, offset, length);
+        highPass.process(samples, offset, length);
+    }
+
+    public void reset() {
+        shelf.reset();
+        highPass.reset();
+    }
+
+    private static Biquad highShelf(double samplingFrequency) {
+        final double f0 = 1681.974450955533;
+        final double gain = 3.999843853973347; // dB
+        final double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / samplingFrequency);
+        double vh = Math.pow(10, gain / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        return new Biquad(
+            (vh + vb * k / q + k * k) / a0,
+            2 * (k * k - vh) / a0,
+            (vh - vb * k / q + k * k) / a0,
+            2 * (k * k - 1) / a0,
+            (1 - k / q + k * k) / a0
+        );
+    }
+
+    private static Biquad highPass(double samplingFrequency) {
+        final double f0 = 38.13547087602444;
+        final double q = 0.5003270373238773;
+        double k = Math.tan(Math.PI * f0 / samplingFrequency);
+        double a0 = 1 + k / q + k * k;
+        return new Biquad(1, -2, 1, 2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0);
+    }
+
+}
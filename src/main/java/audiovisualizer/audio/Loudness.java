@@ -0,0 +1,16 @@
+package audiovisualizer.audio;
+
+/**
+ * Loudness measurements of a whole track, all in LUFS except for the range which is in LU.
+ * Momentary and short-term values come every 100 ms, starting once there's enough audio to fill their windows.
+ */
+public record Loudness(
+
+    double integrated,
+    double range,
+    double[] momentary, // 400 ms windows
+    double[] shortTerm // 3 s windows
+
+) {
+
+}
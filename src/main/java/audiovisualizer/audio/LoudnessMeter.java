@@ -0,0 +1,229 @@
+package audiovisualizer.audio;
+
+import java.util.function.DoubleConsumer;
+
+/**
+ * Measures loudness as described in ITU-R BS.1770 and EBU Tech 3342 in one pass over blocks of pcm.
+ * Blocks are K-weighted in place, then the weighted power of each 100 ms step is kept for the last 3 seconds to get
+ * momentary (400 ms) and short-term (3 s) loudness. Integrated loudness and loudness range need every gating block of the track
+ * so those go into histograms with 0.01 LU bins instead, memory stays the same no matter how long the track is. <p>
+ * {@link} https://www.itu.int/rec/R-REC-BS.1770
+ * {@link} https://tech.ebu.ch/docs/tech/tech3342.pdf
+ */
+public class LoudnessMeter {
+
+    public static final double absoluteGate = -70; // LUFS
+    private static final double histogramMin = absoluteGate;
+    private static final double histogramMax = 20;
+    private static final double histogramStep = 0.01;
+    private static final int histogramBins = (int) Math.round((histogramMax - histogramMin) / histogramStep);
+    private static final int momentarySteps = 4; // 100 ms steps in 400 ms
+    private static final int shortTermSteps = 30; // 100 ms steps in 3 s
+
+    private final int numChannels;
+    private final KWeightingFilter[] filters;
+    private final double[] channelWeights;
+    private final int stepSize;
+    /**Weighted power summed over each of the last 3 seconds of 100 ms steps, oldest gets overwritten first*/
+    private final double[] stepPowers = new double[shortTermSteps];
+    private int stepIndex = 0;
+    private long stepsDone = 0;
+    private int samplesInStep = 0;
+    private double stepPower = 0;
+    private double momentary = Double.NEGATIVE_INFINITY;
+    private double shortTerm = Double.NEGATIVE_INFINITY;
+    private final long[] momentaryCounts = new long[histogramBins];
+    private final double[] momentaryPowers = new double[histogramBins];
+    private final long[] shortTermCounts = new long[histogramBins];
+    private final double[] shortTermPowers = new double[histogramBins];
+    private DoubleConsumer momentaryListener = null;
+    private DoubleConsumer shortTermListener = null;
+
+    /**
+     * @param numChannels number of channels in the pcm blocks that will be given
+     * @param samplingFrequency in Hz
+     */
+    public LoudnessMeter(int numChannels, double samplingFrequency) {
+        if (numChannels < 1) throw new IllegalArgumentException("Number of channels is < 1.");
+        this.numChannels = numChannels;
+        this.filters = new KWeightingFilter[numChannels];
+        for (int i = 0; i < numChannels; i++) {
+            filters[i] = new KWeightingFilter(samplingFrequency);
+        }
+        this.channelWeights = channelWeights(numChannels);
+        this.stepSize = (int) Math.round(samplingFrequency * 0.1);
+    }
+
+    /**
+     * Channel weights from BS.1770 for the usual WAV channel order.
+     * For 5.1 the surround channels count 1.41 times and the LFE channel isn't counted, everything else counts once.
+     */
+    public static double[] channelWeights(int numChannels) {
+        double[] weights = new double[numChannels];
+        for (int i = 0; i < numChannels; i++) {
+            weights[i] = 1;
+        }
+        if (numChannels == 6) { // L R C LFE Ls Rs
+            weights[3] = 0;
+            weights[4] = 1.41;
+            weights[5] = 1.41;
+        }
+        return weights;
+    }
+
+    /**
+     * @param meanSquare channel weighted mean square of K-weighted samples
+     * @return loudness in LUFS
+     */
+    public static double toLoudness(double meanSquare) {
+        return -0.691 + 10 * Math.log10(meanSquare);
+    }
+
+    /**
+     * @param listener gets the momentary loudness every 100 ms
+     */
+    public void setMomentaryListener(DoubleConsumer listener) {
+        momentaryListener = listener;
+    }
+
+    /**
+     * @param listener gets the short-term loudness every 100 ms
+     */
+    public void setShortTermListener(DoubleConsumer listener) {
+        shortTermListener = listener;
+    }
+
+    /**
+     * K-weights a block of samples in place and adds it to the measurements.
+     * @param block samples between -1 and 1 split up by channel, block[channel][sample]. Gets overwritten with the K-weighted samples.
+     * @param length number of samples to use from each channel
+     */
+    public void process(double[][] block, int length) {
+        if (block.length < numChannels) throw new IllegalArgumentException("Block has " + block.length + " channels but expected " + numChannels + ".");
+        for (int channel = 0; channel < numChannels; channel++) {
+            filters[channel].process(block[channel], 0, length);
+        }
+        int pos = 0;
+        while (pos < length) {
+            int count = Math.min(length - pos, stepSize - samplesInStep);
+            for (int channel = 0; channel < numChannels; channel++) {
+                if (channelWeights[channel] == 0) continue;
+                double[] samples = block[channel];
+                double sum = 0;
+                for (int i = pos; i < pos + count; i++) {
+                    sum += samples[i] * samples[i];
+                }
+                stepPower += sum * channelWeights[channel];
+            }
+            pos += count;
+            samplesInStep += count;
+            if (samplesInStep == stepSize) finishStep();
+        }
+    }
+
+    private void finishStep() {
+        stepPowers[stepIndex] = stepPower;
+        stepIndex = (stepIndex + 1) % shortTermSteps;
+        stepPower = 0;
+        samplesInStep = 0;
+        stepsDone++;
+        if (stepsDone >= momentarySteps) {
+            double meanSquare = sumLastSteps(momentarySteps) / (momentarySteps * stepSize);
+            momentary = toLoudness(meanSquare);
+            addToHistogram(momentary, meanSquare, momentaryCounts, momentaryPowers);
+            if (momentaryListener != null) momentaryListener.accept(momentary);
+        }
+        if (stepsDone >= shortTermSteps) {
+            double meanSquare = sumLastSteps(shortTermSteps) / (shortTermSteps * stepSize);
+            shortTerm = toLoudness(meanSquare);
+            addToHistogram(shortTerm, meanSquare, shortTermCounts, shortTermPowers);
+            if (shortTermListener != null) shortTermListener.accept(shortTerm);
+        }
+    }
+
+    private double sumLastSteps(int steps) {
+        double sum = 0;
+        for (int i = 1; i <= steps; i++) {
+            sum += stepPowers[(stepIndex - i + shortTermSteps) % shortTermSteps];
+        }
+        return sum;
+    }
+
+    private void addToHistogram(double loudness, double meanSquare, long[] counts, double[] powers) {
+        if (loudness <= absoluteGate) return;
+        int bin = Math.min((int) ((loudness - histogramMin) / histogramStep), histogramBins - 1);
+        counts[bin]++;
+        powers[bin] += meanSquare;
+    }
+
+    /**
+     * @return loudness of the last 400 ms in LUFS, negative infinity until 400 ms have been given
+     */
+    public double getMomentaryLoudness() {
+        return momentary;
+    }
+
+    /**
+     * @return loudness of the last 3 s in LUFS, negative infinity until 3 s have been given
+     */
+    public double getShortTermLoudness() {
+        return shortTerm;
+    }
+
+    /**
+     * Gated loudness of everything given so far. Blocks under -70 LUFS are thrown out,
+     * then the ones more than 10 LU under the loudness of what's left.
+     * @return integrated loudness in LUFS, negative infinity if nothing was loud enough
+     */
+    public double getIntegratedLoudness() {
+        double relativeGate = gatedLoudness(momentaryCounts, momentaryPowers, 0) - 10;
+        return gatedLoudness(momentaryCounts, momentaryPowers, firstBinAbove(relativeGate));
+    }
+
+    /**
+     * Loudness range from EBU Tech 3342, the spread between the 10th and 95th percentile of short-term loudness
+     * after gating at -70 LUFS and 20 LU under the loudness of the short-term blocks.
+     * @return loudness range in LU, 0 if nothing was loud enough
+     */
+    public double getLoudnessRange() {
+        double relativeGate = gatedLoudness(shortTermCounts, shortTermPowers, 0) - 20;
+        int firstBin = firstBinAbove(relativeGate);
+        long total = 0;
+        for (int i = firstBin; i < histogramBins; i++) {
+            total += shortTermCounts[i];
+        }
+        if (total == 0) return 0;
+        return binLoudness(percentileBin(firstBin, total, 0.95)) - binLoudness(percentileBin(firstBin, total, 0.10));
+    }
+
+    private double gatedLoudness(long[] counts, double[] powers, int firstBin) {
+        long count = 0;
+        double power = 0;
+        for (int i = firstBin; i < histogramBins; i++) {
+            count += counts[i];
+            power += powers[i];
+        }
+        if (count == 0) return Double.NEGATIVE_INFINITY;
+        return toLoudness(power / count);
+    }
+
+    private int firstBinAbove(double loudness) {
+        if (loudness <= histogramMin) return 0;
+        return Math.min((int) Math.ceil((loudness - histogramMin) / histogramStep), histogramBins);
+    }
+
+    private int percentileBin(int firstBin, long total, double percentile) {
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = firstBin; i < histogramBins; i++) {
+            seen += shortTermCounts[i];
+            if (seen >= target) return i;
+        }
+        return histogramBins - 1;
+    }
+
+    private double binLoudness(int bin) {
+        return histogramMin + (bin + 0.5) * histogramStep;
+    }
+
+}
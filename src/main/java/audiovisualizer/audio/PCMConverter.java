@@ -0,0 +1,191 @@
+package audiovisualizer.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Bulk converters from interleaved pcm bytes to arrays of samples split up by channel.
+ * Each bit depth has its own loop that reads straight out of the buffer (or a short/int/float view of it)
+ * into arrays given by the caller so nothing gets allocated per sample.
+ * The byte order of the buffer is used for multi byte samples.
+ */
+public class PCMConverter {
+
+    public enum SampleFormat {
+        UNSIGNED_8(1),
+        SIGNED_16(2),
+        SIGNED_24(3),
+        SIGNED_32(4),
+        FLOAT_32(4);
+
+        private final int bytes;
+
+        private SampleFormat(int bytes) {
+            this.bytes = bytes;
+        }
+
+        public int bytes() {
+            return bytes;
+        }
+
+        /**
+         * @param bitsPerSample bits for each value of a sample
+         * @param floatingPoint whether samples are IEEE floats instead of integers, only for 32 bits per sample
+         */
+        public static SampleFormat of(int bitsPerSample, boolean floatingPoint) {
+            if (floatingPoint) {
+                if (bitsPerSample != 32) throw new IllegalArgumentException("Unsupported audio format has " + bitsPerSample + " bit floats. Only support 32.");
+                return FLOAT_32;
+            }
+            return switch(bitsPerSample / 8) {
+                case 1 -> UNSIGNED_8;
+                case 2 -> SIGNED_16;
+                case 3 -> SIGNED_24;
+                case 4 -> SIGNED_32;
+                default -> throw new IllegalArgumentException("Unsupported audio format has " + bitsPerSample/8 + " bytes per sample. Only support 1, 2, 3, and 4.");
+            };
+        }
+    }
+
+    private PCMConverter() {}
+
+    /**
+     * Reads whole frames from the buffer's position as integers in the range of their bit depth,
+     * 8 bit samples are centered on zero and floats are scaled to the 32 bit range. Advances the buffer's position past the frames read.
+     * @param pcm interleaved pcm data
+     * @param format format of each sample
+     * @param numChannels number of channels in the pcm
+     * @param out samples split up by channel, out[channel][sample]
+     * @param offset index in each channel array to start writing at
+     * @param frames maximum number of samples per channel to read
+     * @return number of samples per channel that were read, 0 once the buffer runs out of whole frames
+     */
+    public static int read(ByteBuffer pcm, SampleFormat format, int numChannels, int[][] out, int offset, int frames) {
+        frames = checkFrames(pcm, format, numChannels, out.length, frames);
+        int start = pcm.position();
+        switch(format) {
+            case UNSIGNED_8 -> {
+                for (int channel = 0; channel < numChannels; channel++) {
+                    int[] samples = out[channel];
+                    for (int i = 0, pos = start + channel; i < frames; i++, pos += numChannels) {
+                        samples[offset + i] = (pcm.get(pos) & 0xFF) - 128;
+                    }
+                }
+            }
+            case SIGNED_16 -> {
+                ShortBuffer shorts = pcm.asShortBuffer();
+                for (int channel = 0; channel < numChannels; channel++) {
+                    int[] samples = out[channel];
+                    for (int i = 0, pos = channel; i < frames; i++, pos += numChannels) {
+                        samples[offset + i] = shorts.get(pos);
+                    }
+                }
+            }
+            case SIGNED_24 -> {
+                boolean littleEndian = pcm.order() == ByteOrder.LITTLE_ENDIAN;
+                for (int channel = 0; channel < numChannels; channel++) {
+                    int[] samples = out[channel];
+                    for (int i = 0, pos = start + channel * 3; i < frames; i++, pos += numChannels * 3) {
+                        samples[offset + i] = read24(pcm, pos, littleEndian);
+                    }
+                }
+            }
+            case SIGNED_32 -> {
+                IntBuffer ints = pcm.asIntBuffer();
+                for (int channel = 0; channel < numChannels; channel++) {
+                    int[] samples = out[channel];
+                    for (int i = 0, pos = channel; i < frames; i++, pos += numChannels) {
+                        samples[offset + i] = ints.get(pos);
+                    }
+                }
+            }
+            case FLOAT_32 -> {
+                FloatBuffer floats = pcm.asFloatBuffer();
+                for (int channel = 0; channel < numChannels; channel++) {
+                    int[] samples = out[channel];
+                    for (int i = 0, pos = channel; i < frames; i++, pos += numChannels) {
+                        samples[offset + i] = (int) (floats.get(pos) * 2147483648.0); // casting saturates anything past full scale
+                    }
+                }
+            }
+        }
+        pcm.position(start + frames * numChannels * format.bytes());
+        return frames;
+    }
+
+    /**
+     * Same as {@link #read(ByteBuffer, SampleFormat, int, int[][], int, int)} but scales the samples to be between -1 and 1.
+     */
+    public static int read(ByteBuffer pcm, SampleFormat format, int numChannels, double[][] out, int offset, int frames) {
+        frames = checkFrames(pcm, format, numChannels, out.length, frames);
+        int start = pcm.position();
+        switch(format) {
+            case UNSIGNED_8 -> {
+                for (int channel = 0; channel < numChannels; channel++) {
+                    double[] samples = out[channel];
+                    for (int i = 0, pos = start + channel; i < frames; i++, pos += numChannels) {
+                        samples[offset + i] = ((pcm.get(pos) & 0xFF) - 128) * (1.0 / 128);
+                    }
+                }
+            }
+            case SIGNED_16 -> {
+                ShortBuffer shorts = pcm.asShortBuffer();
+                for (int channel = 0; channel < numChannels; channel++) {
+                    double[] samples = out[channel];
+                    for (int i = 0, pos = channel; i < frames; i++, pos += numChannels) {
+                        samples[offset + i] = shorts.get(pos) * (1.0 / 32768);
+                    }
+                }
+            }
+            case SIGNED_24 -> {
+                boolean littleEndian = pcm.order() == ByteOrder.LITTLE_ENDIAN;
+                for (int channel = 0; channel < numChannels; channel++) {
+                    double[] samples = out[channel];
+                    for (int i = 0, pos = start + channel * 3; i < frames; i++, pos += numChannels * 3) {
+                        samples[offset + i] = read24(pcm, pos, littleEndian) * (1.0 / 8388608);
+                    }
+                }
+            }
+            case SIGNED_32 -> {
+                IntBuffer ints = pcm.asIntBuffer();
+                for (int channel = 0; channel < numChannels; channel++) {
+                    double[] samples = out[channel];
+                    for (int i = 0, pos = channel; i < frames; i++, pos += numChannels) {
+                        samples[offset + i] = ints.get(pos) * (1.0 / 2147483648.0);
+                    }
+                }
+            }
+            case FLOAT_32 -> {
+                FloatBuffer floats = pcm.asFloatBuffer();
+                for (int channel = 0; channel < numChannels; channel++) {
+                    double[] samples = out[channel];
+                    for (int i = 0, pos = channel; i < frames; i++, pos += numChannels) {
+                        samples[offset + i] = floats.get(pos);
+                    }
+                }
+            }
+        }
+        pcm.position(start + frames * numChannels * format.bytes());
+        return frames;
+    }
+
+    private static int checkFrames(ByteBuffer pcm, SampleFormat format, int numChannels, int outChannels, int frames) {
+        if (numChannels < 1) throw new IllegalArgumentException("Number of channels is < 1.");
+        if (outChannels < numChannels) throw new IllegalArgumentException("Output has " + outChannels + " channels but expected " + numChannels + ".");
+        return Math.min(frames, pcm.remaining() / (format.bytes() * numChannels));
+    }
+
+    /**
+     * Only the most significant byte keeps its sign so the sample is sign extended from bit 23.
+     */
+    private static int read24(ByteBuffer pcm, int pos, boolean littleEndian) {
+        if (littleEndian) {
+            return (pcm.get(pos) & 0xFF) | (pcm.get(pos + 1) & 0xFF) << 8 | pcm.get(pos + 2) << 16;
+        }
+        return pcm.get(pos) << 16 | (pcm.get(pos + 1) & 0xFF) << 8 | (pcm.get(pos + 2) & 0xFF);
+    }
+
+}
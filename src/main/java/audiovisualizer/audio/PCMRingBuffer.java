@@ -0,0 +1,83 @@
+package audiovisualizer.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ring of bytes between one thread writing and one thread reading, without locks.
+ * Each side only ever moves its own position, and only after it's done copying, so the reader never sees bytes that aren't there yet
+ * and the writer never overwrites bytes that haven't been read. Positions count every byte that went through, and wrap onto the array with a mask
+ * since the capacity is a power of 2.
+ */
+class PCMRingBuffer {
+
+    private final byte[] buffer;
+    private final int mask;
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+
+    /**
+     * @param minCapacity bytes it has to hold at least, rounded up to a power of 2
+     */
+    PCMRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity - 1, 1)) << 1;
+        buffer = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Bytes that can be read, only exact for the reading thread.
+     */
+    int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * Bytes that can be written, only exact for the writing thread.
+     */
+    int free() {
+        return buffer.length - available();
+    }
+
+    /**
+     * Copies as much of a buffer as fits, only call this from the writing thread.
+     * @return number of bytes written, the buffer's position moves past them
+     */
+    int write(ByteBuffer src) {
+        long position = writePosition.get();
+        int length = Math.min(src.remaining(), buffer.length - (int) (position - readPosition.get()));
+        int index = (int) position & mask;
+        int first = Math.min(length, buffer.length - index);
+        src.get(buffer, index, first);
+        src.get(buffer, 0, length - first);
+        writePosition.lazySet(position + length);
+        return length;
+    }
+
+    /**
+     * Copies out as many bytes as there are, up to a length, only call this from the reading thread.
+     * @return number of bytes read
+     */
+    int read(byte[] dst, int offset, int length) {
+        long position = readPosition.get();
+        length = Math.min(length, (int) (writePosition.get() - position));
+        int index = (int) position & mask;
+        int first = Math.min(length, buffer.length - index);
+        System.arraycopy(buffer, index, dst, offset, first);
+        System.arraycopy(buffer, 0, dst, offset + first, length - first);
+        readPosition.lazySet(position + length);
+        return length;
+    }
+
+    /**
+     * Throws away everything that hasn't been read, only call this from the reading thread.
+     */
+    void skipAll() {
+        readPosition.lazySet(writePosition.get());
+    }
+
+}
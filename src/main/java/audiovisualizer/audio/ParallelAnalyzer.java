@@ -0,0 +1,132 @@
+package audiovisualizer.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.DoubleStream;
+
+import audiovisualizer.audio.AudioMagician.Weighting;
+import audiovisualizer.audio.PCMConverter.SampleFormat;
+
+/**
+ * Does the same analysis as {@link AudioMagician#getAudioVolume} but splits the track into segments that start on a window boundary
+ * and analyzes them on a {@link ForkJoinPool}, then puts the windows back together in order. <p>
+ * The K-weighting filters carry state across segment boundaries, so each segment first runs its filters over the second of audio before it
+ * and throws that output away. The slowest part of the filter (the 38 Hz high pass) decays by more than e^-200 in a second,
+ * so the state it ends up with is the same as running the whole track in one go, down to double precision.
+ */
+public class ParallelAnalyzer implements AutoCloseable {
+
+    private static final double filterSettleSeconds = 1;
+    private static final int segmentsPerThread = 4;
+    private static final int minWindowsPerSegment = 8;
+    private static final int blockFrames = 4096;
+
+    private final ForkJoinPool pool;
+    private final int threads;
+
+    /**
+     * Uses one thread per core.
+     */
+    public ParallelAnalyzer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads number of threads to analyze with
+     */
+    public ParallelAnalyzer(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads is < 1.");
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Same as {@link AudioMagician#getAudioVolume(ByteBuffer, double, int, int, double, double, Weighting)}, including the result.
+     */
+    public double[] getAudioVolume(ByteBuffer pcm, double samplingFrequency, int bitsPerSample, int numChannels, double windowSeconds, double hopSeconds, Weighting weighting) {
+        final int windowSize = (int) (samplingFrequency * windowSeconds);
+        final int hopSize = (int) (samplingFrequency * hopSeconds);
+        if (windowSize < 1 || hopSize < 1 || hopSize > windowSize) throw new IllegalArgumentException("Hop size " + hopSize + " has to be between 1 and the window size " + windowSize + ".");
+        SampleFormat format = SampleFormat.of(bitsPerSample, false);
+        ByteBuffer buffer = pcm.slice().order(ByteOrder.LITTLE_ENDIAN);
+        long totalFrames = buffer.remaining() / (format.bytes() * numChannels);
+        if (totalFrames == 0) return new double[0];
+        long fullWindows = totalFrames < windowSize ? 0 : (totalFrames - windowSize) / hopSize + 1;
+        long windowsPerSegment = Math.max(minWindowsPerSegment, (fullWindows + threads * segmentsPerThread - 1) / (threads * segmentsPerThread));
+        int settleFrames = (weighting == Weighting.K_WEIGHTING) ? (int) (samplingFrequency * filterSettleSeconds) : 0;
+        List<Callable<double[]>> segments = new ArrayList<>();
+        long firstWindow = 0;
+        do {
+            long startFrame = firstWindow * hopSize;
+            long lastWindow = firstWindow + windowsPerSegment;
+            // The last segment takes whatever is left, including the window padded with silence at the end
+            boolean last = lastWindow >= fullWindows;
+            long endFrame = last ? totalFrames : (lastWindow - 1) * hopSize + windowSize;
+            segments.add(() -> analyzeSegment(buffer, format, numChannels, samplingFrequency, windowSize, hopSize, weighting,
+                Math.max(0, startFrame - settleFrames), startFrame, endFrame, last));
+            firstWindow = lastWindow;
+        } while (firstWindow < fullWindows);
+        DoubleStream.Builder volumes = DoubleStream.builder();
+        try {
+            for (Future<double[]> segment : pool.invokeAll(segments)) {
+                for (double volume : segment.get()) {
+                    volumes.accept(volume);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while analyzing.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Analyzing a segment failed.", e.getCause());
+        }
+        return volumes.build().toArray();
+    }
+
+    private double[] analyzeSegment(ByteBuffer pcm, SampleFormat format, int numChannels, double samplingFrequency, int windowSize, int hopSize,
+            Weighting weighting, long settleFrame, long startFrame, long endFrame, boolean last) {
+        DoubleStream.Builder volumes = DoubleStream.builder();
+        VolumeAnalyzer analyzer = new VolumeAnalyzer(numChannels, windowSize, hopSize, LoudnessMeter.channelWeights(numChannels), volumes);
+        KWeightingFilter[] filters = new KWeightingFilter[numChannels];
+        for (int channel = 0; channel < numChannels; channel++) {
+            filters[channel] = new KWeightingFilter(samplingFrequency);
+        }
+        int bytesPerFrame = format.bytes() * numChannels;
+        double[][] block = new double[numChannels][blockFrames];
+        ByteBuffer buffer = pcm.duplicate().order(pcm.order());
+        // Settle the filters on the audio before the segment, none of it goes into this segment's windows
+        buffer.limit((int) (startFrame * bytesPerFrame)).position((int) (settleFrame * bytesPerFrame));
+        int length;
+        while ((length = PCMConverter.read(buffer, format, numChannels, block, 0, blockFrames)) > 0) {
+            applyWeighting(filters, weighting, block, length);
+        }
+        buffer.limit((int) (endFrame * bytesPerFrame));
+        while ((length = PCMConverter.read(buffer, format, numChannels, block, 0, blockFrames)) > 0) {
+            applyWeighting(filters, weighting, block, length);
+            analyzer.process(block, length);
+        }
+        if (last) analyzer.flush();
+        return volumes.build().map(AudioMagician::toLoudness).toArray();
+    }
+
+    private void applyWeighting(KWeightingFilter[] filters, Weighting weighting, double[][] block, int length) {
+        if (weighting != Weighting.K_WEIGHTING) return;
+        for (int channel = 0; channel < filters.length; channel++) {
+            filters[channel].process(block[channel], 0, length);
+        }
+    }
+
+    /**
+     * Shuts down the threads once the analysis that's already running is done.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+}
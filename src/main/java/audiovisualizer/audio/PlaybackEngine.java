@@ -0,0 +1,280 @@
+package audiovisualizer.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays pcm through a {@link SourceDataLine} a small block at a time. One thread copies the track into a lock free {@link PCMRingBuffer}
+ * and another takes blocks out of it, hands each one to the taps and writes it to the line. Both threads live as long as the engine
+ * and the line stays open between tracks with the same format, so starting a track doesn't create anything. <p>
+ * The line only holds a few blocks, so the audio that's heard is never more than that far behind what the taps were given,
+ * {@link #latencySeconds()} says how far it actually is. <p>
+ * Switching tracks: {@link #play} bumps a generation number, the feeding thread stops writing the old track and says so,
+ * then the playing thread throws away what's left of it, flushes the line and says so, and only then does the new track get written.
+ */
+public class PlaybackEngine implements AutoCloseable {
+
+    /**
+     * Gets every block right as it's written to the line.
+     */
+    public interface Tap {
+        /**
+         * Called on the playing thread, so it has to be quick.
+         * @param block the block's pcm, only good until this returns
+         * @param format format of the pcm
+         */
+        void played(ByteBuffer block, AudioFormat format);
+    }
+
+    public static final int defaultBlockFrames = 1024;
+    /**Blocks the line holds, which is most of the latency*/
+    private static final int lineBlocks = 4;
+    /**Blocks the ring holds ahead of the line*/
+    private static final int ringBlocks = 16;
+
+    private final int blockFrames;
+    private final List<Tap> taps = new CopyOnWriteArrayList<>();
+    private final Thread feeder;
+    private final Thread player;
+    private volatile boolean closed = false;
+
+    // Set by play, read by both threads
+    private volatile int generation = 0;
+    private volatile Track track;
+    // Each thread's answer to a new generation
+    private volatile int feederGeneration = 0;
+    private volatile int playerGeneration = 0;
+    private volatile boolean fed = true; // Whether all of the track is in the ring
+
+    // Only touched by the playing thread, except the line's own thread safe position
+    private volatile SourceDataLine line;
+    private PCMRingBuffer ring;
+    private byte[] block = new byte[0];
+    private long framesWritten = 0;
+    private volatile long trackStartFrame = 0; // Line frame position where the track started
+    private volatile long trackFramesWritten = 0;
+    private volatile double latencySeconds = 0;
+    private volatile boolean playing = false;
+
+    private record Track(ByteBuffer pcm, AudioFormat format) {}
+
+    public PlaybackEngine() {
+        this(defaultBlockFrames);
+    }
+
+    /**
+     * @param blockFrames samples per channel in each block written to the line and given to the taps
+     */
+    public PlaybackEngine(int blockFrames) {
+        if (blockFrames < 1) throw new IllegalArgumentException("Block size is < 1.");
+        this.blockFrames = blockFrames;
+        feeder = new Thread(this::feed, "Audio feeder");
+        player = new Thread(this::writeBlocks, "Audio player");
+        feeder.setDaemon(true);
+        player.setDaemon(true);
+        feeder.start();
+        player.start();
+    }
+
+    /**
+     * Starts playing pcm, cutting off whatever was playing. Tracks should only be started and stopped from one thread.
+     * @param pcm interleaved pcm from its position to its limit, it isn't copied so it can't change while it plays
+     */
+    public void play(ByteBuffer pcm, AudioFormat format) {
+        track = new Track(pcm.duplicate(), format);
+        generation++;
+        LockSupport.unpark(feeder);
+        LockSupport.unpark(player);
+    }
+
+    /**
+     * Starts playing pcm, cutting off whatever was playing.
+     */
+    public void play(ByteBuffer pcm, int sampleRate, int bitsPerSample, int numChannels) {
+        play(pcm, format(sampleRate, bitsPerSample, numChannels));
+    }
+
+    /**
+     * The format of little endian pcm, 8 bit samples are unsigned and the rest are signed like in WAV files.
+     */
+    public static AudioFormat format(int sampleRate, int bitsPerSample, int numChannels) {
+        return new AudioFormat(sampleRate, bitsPerSample, numChannels, bitsPerSample > 8, false);
+    }
+
+    public void stop() {
+        track = null;
+        generation++;
+        LockSupport.unpark(feeder);
+        LockSupport.unpark(player);
+    }
+
+    public void addTap(Tap tap) {
+        taps.add(tap);
+    }
+
+    public void removeTap(Tap tap) {
+        taps.remove(tap);
+    }
+
+    /**
+     * Whether there's still audio of the current track that hasn't come out of the line.
+     */
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * Seconds into the current track that are coming out of the line right now.
+     */
+    public double positionSeconds() {
+        SourceDataLine current = line;
+        Track playingTrack = track;
+        if (current == null || playingTrack == null) return 0;
+        long frames = Math.min(current.getLongFramePosition() - trackStartFrame, trackFramesWritten);
+        return Math.max(0, frames) / (double) playingTrack.format().getFrameRate();
+    }
+
+    /**
+     * How long a block takes to be heard after it's given to the taps, measured from the line each time a block gets written.
+     */
+    public double latencySeconds() {
+        return latencySeconds;
+    }
+
+    /**
+     * Copies the track into the ring as fast as there's room for it.
+     */
+    private void feed() {
+        int seen = 0;
+        ByteBuffer pcm = null;
+        while (!closed) {
+            if (seen != generation) {
+                seen = generation;
+                Track next = track;
+                pcm = next == null ? null : next.pcm().duplicate();
+                fed = pcm == null || !pcm.hasRemaining();
+                feederGeneration = seen;
+                LockSupport.unpark(player);
+                continue;
+            }
+            if (playerGeneration != seen || pcm == null || !pcm.hasRemaining() || ring == null || ring.free() < block.length) {
+                LockSupport.park(); // The playing thread wakes this up when it takes a block out or starts a track
+                continue;
+            }
+            ring.write(pcm);
+            if (!pcm.hasRemaining()) fed = true;
+            LockSupport.unpark(player);
+        }
+    }
+
+    /**
+     * Takes blocks out of the ring, hands them to the taps and writes them to the line, which blocks once the line is full.
+     */
+    private void writeBlocks() {
+        AudioFormat format = null;
+        while (!closed) {
+            int current = generation;
+            if (current != playerGeneration) {
+                if (feederGeneration != current) {
+                    LockSupport.parkNanos(100_000);
+                    continue;
+                }
+                Track next = track;
+                format = next == null ? null : next.format();
+                startTrack(format);
+                playerGeneration = current;
+                LockSupport.unpark(feeder);
+                continue;
+            }
+            if (format == null || line == null) {
+                playing = false;
+                LockSupport.park();
+                continue;
+            }
+            int available = ring.available();
+            if (available < block.length && !(fed && available > 0)) {
+                // Out of audio, done once the line has played everything
+                if (fed && available == 0) {
+                    playing = line.getLongFramePosition() < trackStartFrame + trackFramesWritten;
+                    if (playing) LockSupport.parkNanos(5_000_000);
+                    else LockSupport.park();
+                } else {
+                    LockSupport.parkNanos(500_000);
+                }
+                continue;
+            }
+            int length = ring.read(block, 0, block.length);
+            LockSupport.unpark(feeder);
+            ByteBuffer view = ByteBuffer.wrap(block, 0, length).asReadOnlyBuffer();
+            ByteOrder order = format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            for (Tap tap : taps) {
+                try {
+                    tap.played(view.duplicate().order(order), format);
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // A broken tap shouldn't stop the audio
+                }
+            }
+            line.write(block, 0, length);
+            framesWritten += length / format.getFrameSize();
+            trackFramesWritten += length / format.getFrameSize();
+            latencySeconds = (framesWritten - line.getLongFramePosition()) / (double) format.getFrameRate();
+        }
+        if (line != null) line.close();
+    }
+
+    /**
+     * Gets rid of the last track's audio and gets the line ready for a format, only opening a new line if the format changed.
+     */
+    private void startTrack(AudioFormat format) {
+        if (ring != null) ring.skipAll();
+        SourceDataLine current = line;
+        if (current != null) {
+            current.stop();
+            current.flush();
+            if (format == null || !current.getFormat().matches(format)) {
+                current.close();
+                line = null;
+            }
+        }
+        trackFramesWritten = 0;
+        playing = format != null;
+        if (format == null) return;
+        try {
+            int blockBytes = blockFrames * format.getFrameSize();
+            if (line == null) {
+                SourceDataLine opened = AudioSystem.getSourceDataLine(format);
+                opened.open(format, blockBytes * lineBlocks);
+                line = opened;
+            }
+            if (block.length != blockBytes) {
+                block = new byte[blockBytes];
+                ring = new PCMRingBuffer(blockBytes * ringBlocks);
+            }
+            framesWritten = line.getLongFramePosition();
+            trackStartFrame = framesWritten;
+            line.start();
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            e.printStackTrace();
+            playing = false;
+        }
+    }
+
+    /**
+     * Stops playing and ends both threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(feeder);
+        LockSupport.unpark(player);
+    }
+
+}
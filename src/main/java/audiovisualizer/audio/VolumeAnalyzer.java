@@ -0,0 +1,111 @@
+package audiovisualizer.audio;
+
+import java.util.function.DoubleConsumer;
+
+/**
+ * Computes the root mean square of windows of audio incrementally as blocks of pcm come in,
+ * so only one window of samples is ever kept around no matter how long the track is.
+ * Windows can overlap by using a hop size smaller than the window size, each sample still only costs O(1).
+ * The channels of a sample are averaged together before being squared,
+ * unless channel weights are given in which case each channel is squared and the weighted squares are added up like BS.1770 does.
+ */
+public class VolumeAnalyzer {
+
+    private final int numChannels;
+    private final int windowSize;
+    private final int hopSize;
+    private final double[] channelWeights;
+    private final DoubleConsumer listener;
+    /**Squared samples of the current window, oldest gets overwritten first*/
+    private final double[] squares;
+    private int ringIndex = 0;
+    /**Number of samples in the ring buffer, stops growing once it reaches the window size*/
+    private int filled = 0;
+    private int samplesSinceWindow = 0;
+    private int samplesSinceResum = 0;
+    private double sum = 0;
+
+    /**
+     * @param numChannels number of channels in the pcm blocks that will be given
+     * @param windowSize number of samples that go into each rms value
+     * @param hopSize number of samples between the start of each window, the same as the window size means they don't overlap
+     * @param listener gets the rms of each window as soon as the window is complete
+     */
+    public VolumeAnalyzer(int numChannels, int windowSize, int hopSize, DoubleConsumer listener) {
+        this(numChannels, windowSize, hopSize, null, listener);
+    }
+
+    /**
+     * @param channelWeights how much the power of each channel counts for, null to average the channels instead
+     */
+    public VolumeAnalyzer(int numChannels, int windowSize, int hopSize, double[] channelWeights, DoubleConsumer listener) {
+        if (numChannels < 1) throw new IllegalArgumentException("Number of channels is < 1.");
+        if (windowSize < 1) throw new IllegalArgumentException("Window size is < 1.");
+        if (hopSize < 1 || hopSize > windowSize) throw new IllegalArgumentException("Hop size " + hopSize + " has to be between 1 and the window size " + windowSize + ".");
+        if (listener == null) throw new IllegalArgumentException("Listener is null.");
+        if (channelWeights != null && channelWeights.length < numChannels) throw new IllegalArgumentException("Not every channel has a weight.");
+        this.numChannels = numChannels;
+        this.channelWeights = channelWeights;
+        this.windowSize = windowSize;
+        this.hopSize = hopSize;
+        this.listener = listener;
+        this.squares = new double[windowSize];
+    }
+
+    /**
+     * Adds a block of samples, any windows that get completed by it are given to the listener right away.
+     * @param block samples split up by channel, block[channel][sample]
+     * @param length number of samples to use from each channel
+     */
+    public void process(double[][] block, int length) {
+        if (block.length < numChannels) throw new IllegalArgumentException("Block has " + block.length + " channels but expected " + numChannels + ".");
+        for (int i = 0; i < length; i++) {
+            double val = 0;
+            if (channelWeights == null) {
+                for (int channel = 0; channel < numChannels; channel++) {
+                    val += block[channel][i];
+                }
+                val /= numChannels;
+                addSquare(val * val);
+            } else {
+                for (int channel = 0; channel < numChannels; channel++) {
+                    val += block[channel][i] * block[channel][i] * channelWeights[channel];
+                }
+                addSquare(val);
+            }
+        }
+    }
+
+    /**
+     * Finishes the last window by padding it with silence, if any samples came in after the last complete window.
+     * This is the same thing that happens to the last window of a track that doesn't divide evenly into windows.
+     */
+    public void flush() {
+        if (filled == 0 || samplesSinceWindow == 0) return;
+        int padding = (filled < windowSize) ? windowSize - filled : hopSize - samplesSinceWindow;
+        for (int i = 0; i < padding; i++) {
+            addSquare(0);
+        }
+    }
+
+    private void addSquare(double square) {
+        sum += square - squares[ringIndex]; // the slot being overwritten is the sample leaving the window, zero while filling up
+        squares[ringIndex] = square;
+        if (++ringIndex == windowSize) ringIndex = 0;
+        if (filled < windowSize) filled++;
+        // Adding and subtracting forever lets rounding errors pile up so every window length worth of samples start the sum over
+        if (++samplesSinceResum == windowSize) {
+            samplesSinceResum = 0;
+            sum = 0;
+            for (int i = 0; i < windowSize; i++) {
+                sum += squares[i];
+            }
+        }
+        samplesSinceWindow++;
+        if (filled == windowSize && samplesSinceWindow >= hopSize) {
+            samplesSinceWindow = 0;
+            listener.accept(Math.sqrt(Math.max(sum, 0) / windowSize));
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package audiovisualizer.audio;
+
+import java.nio.ByteBuffer;
+
+import audiovisualizer.audio.PCMConverter.SampleFormat;
+
+/**
+ * The shape of a whole track for drawing, the min, max and RMS of blocks of samples with the channels mixed together.
+ * The blocks come in levels like a mipmap, each level's blocks are twice as long as the level before, down to one block for the whole track.
+ * A stretch of time gets summed up from the coarsest level that still has a block shorter than it,
+ * so a column of pixels only ever looks at a few blocks no matter how far out it's zoomed or how long the track is. <p>
+ * Saved next to the track by {@link WaveformCache} so it doesn't have to be built again.
+ */
+public record Waveform(
+
+    int sampleRate, // In Hz
+    long totalSamples, // Samples per channel in the track
+    Level[] levels // Finest first
+
+) {
+
+    /**
+     * @param min lowest sample in each block, between -1 and 1
+     * @param max highest sample in each block, between -1 and 1
+     * @param rms RMS of each block
+     */
+    public record Level(int blockSamples, float[] min, float[] max, float[] rms) {
+        public int blocks() {
+            return min.length;
+        }
+    }
+
+    public static final int baseBlockSamples = 256;
+    private static final int chunkFrames = 4096;
+
+    /**
+     * Goes through interleaved pcm once to find the min, max and RMS of each block of the finest level,
+     * then folds pairs of blocks together for each level above it.
+     */
+    public static Waveform of(ByteBuffer pcm, int sampleRate, int bitsPerSample, int numChannels) {
+        SampleFormat format = SampleFormat.of(bitsPerSample, false);
+        ByteBuffer data = pcm.duplicate().order(pcm.order());
+        long totalSamples = data.remaining() / (format.bytes() * numChannels);
+        int blocks = (int) ((totalSamples + baseBlockSamples - 1) / baseBlockSamples);
+        float[] min = new float[blocks];
+        float[] max = new float[blocks];
+        float[] rms = new float[blocks];
+        double[][] chunk = new double[numChannels][chunkFrames]; // A multiple of the block size so blocks don't straddle chunks
+        int block = 0;
+        int read;
+        while ((read = PCMConverter.read(data, format, numChannels, chunk, 0, chunkFrames)) > 0) {
+            for (int start = 0; start < read; start += baseBlockSamples, block++) {
+                int end = Math.min(start + baseBlockSamples, read);
+                double low = Double.MAX_VALUE;
+                double high = -Double.MAX_VALUE;
+                double sumSquares = 0;
+                for (int i = start; i < end; i++) {
+                    double sample = 0;
+                    for (int channel = 0; channel < numChannels; channel++) {
+                        sample += chunk[channel][i];
+                    }
+                    sample /= numChannels;
+                    low = Math.min(low, sample);
+                    high = Math.max(high, sample);
+                    sumSquares += sample * sample;
+                }
+                min[block] = (float) low;
+                max[block] = (float) high;
+                rms[block] = (float) Math.sqrt(sumSquares / (end - start));
+            }
+        }
+        return new Waveform(sampleRate, totalSamples, buildLevels(new Level(baseBlockSamples, min, max, rms)));
+    }
+
+    /**
+     * Folds each pair of blocks into one block of the next level until a level only has one block.
+     */
+    static Level[] buildLevels(Level base) {
+        int count = 1;
+        for (int blocks = base.blocks(); blocks > 1; blocks = (blocks + 1) / 2) {
+            count++;
+        }
+        Level[] levels = new Level[count];
+        levels[0] = base;
+        for (int i = 1; i < count; i++) {
+            Level below = levels[i - 1];
+            int blocks = (below.blocks() + 1) / 2;
+            float[] min = new float[blocks];
+            float[] max = new float[blocks];
+            float[] rms = new float[blocks];
+            for (int b = 0; b < blocks; b++) {
+                int first = 2 * b;
+                int second = Math.min(first + 1, below.blocks() - 1);
+                min[b] = Math.min(below.min()[first], below.min()[second]);
+                max[b] = Math.max(below.max()[first], below.max()[second]);
+                double squares = (double) below.rms()[first] * below.rms()[first] + (double) below.rms()[second] * below.rms()[second];
+                rms[b] = (float) Math.sqrt(squares / 2);
+            }
+            levels[i] = new Level(below.blockSamples() * 2, min, max, rms);
+        }
+        return levels;
+    }
+
+    /**
+     * Samples per channel in each block of the finest level.
+     */
+    public int blockSamples() {
+        return levels.length == 0 ? baseBlockSamples : levels[0].blockSamples();
+    }
+
+    public double durationSeconds() {
+        return (double) totalSamples / sampleRate;
+    }
+
+    /**
+     * @return the coarsest level whose blocks are no longer than a stretch of time, or the finest level if they all are
+     */
+    public Level levelFor(double seconds) {
+        double samples = seconds * sampleRate;
+        int level = 0;
+        while (level + 1 < levels.length && levels[level + 1].blockSamples() <= samples) {
+            level++;
+        }
+        return levels[level];
+    }
+
+    /**
+     * Sums up the blocks that cover a stretch of time from the level that fits it, at least one block even if the stretch is shorter than that.
+     * @param out min, max and RMS, or NaN for all 3 if the stretch is past the end of the track
+     */
+    public void summarize(double startSeconds, double endSeconds, float[] out) {
+        if (levels.length == 0) {
+            out[0] = out[1] = out[2] = Float.NaN;
+            return;
+        }
+        Level level = levelFor(endSeconds - startSeconds);
+        int first = (int) Math.floor(startSeconds * sampleRate / level.blockSamples());
+        int last = Math.max(first + 1, (int) Math.ceil(endSeconds * sampleRate / level.blockSamples()));
+        first = Math.max(first, 0);
+        last = Math.min(last, level.blocks());
+        if (first >= last) {
+            out[0] = out[1] = out[2] = Float.NaN;
+            return;
+        }
+        float low = Float.MAX_VALUE;
+        float high = -Float.MAX_VALUE;
+        double sumSquares = 0;
+        for (int i = first; i < last; i++) {
+            low = Math.min(low, level.min()[i]);
+            high = Math.max(high, level.max()[i]);
+            sumSquares += (double) level.rms()[i] * level.rms()[i];
+        }
+        out[0] = low;
+        out[1] = high;
+        out[2] = (float) Math.sqrt(sumSquares / (last - first));
+    }
+
+}
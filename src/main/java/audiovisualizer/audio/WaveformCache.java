@@ -0,0 +1,92 @@
+package audiovisualizer.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+
+import audiovisualizer.audio.Waveform.Level;
+
+/**
+ * Saves the {@link Waveform} of a track next to it as a small sidecar file, so opening the track again can draw it before anything gets decoded.
+ * Only the finest level gets saved, with each value as a 16 bit fraction of full scale, the levels above it are quick to fold back together. <p>
+ * A sidecar only gets used if the track's {@link FileIdentity} matches the one it was saved with.
+ */
+public class WaveformCache {
+
+    private static final int magic = 0x5746524D; // "WFRM"
+    private static final int formatVersion = 1;
+    private static final float scale = Short.MAX_VALUE;
+
+    /**
+     * @return where the waveform of a track gets saved
+     */
+    public static File sidecarFile(File file) {
+        return new File(file.getPath() + ".wfm");
+    }
+
+    /**
+     * @return the saved waveform of a track, or null if there isn't one or it's for a different version of the file
+     */
+    public Waveform load(File file) {
+        File sidecar = sidecarFile(file);
+        if (!sidecar.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+            if (in.readInt() != magic || in.readInt() != formatVersion) return null;
+            if (in.readLong() != file.length() || in.readLong() != file.lastModified()) return null; // Checked before hashing since it's free
+            if (in.readLong() != FileIdentity.contentHash(file)) return null;
+            int sampleRate = in.readInt();
+            long totalSamples = in.readLong();
+            int blockSamples = in.readInt();
+            int blocks = in.readInt();
+            if (sampleRate <= 0 || blockSamples <= 0 || blocks < 0) return null;
+            float[] min = new float[blocks];
+            float[] max = new float[blocks];
+            float[] rms = new float[blocks];
+            for (int i = 0; i < blocks; i++) {
+                min[i] = in.readShort() / scale;
+                max[i] = in.readShort() / scale;
+                rms[i] = in.readShort() / scale;
+            }
+            return new Waveform(sampleRate, totalSamples, Waveform.buildLevels(new Level(blockSamples, min, max, rms)));
+        } catch (IOException e) {
+            return null; // Cut off or broken, it'll be built again
+        }
+    }
+
+    public void save(File file, Waveform waveform) {
+        File sidecar = sidecarFile(file);
+        try {
+            FileIdentity identity = FileIdentity.of(file);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+                out.writeInt(magic);
+                out.writeInt(formatVersion);
+                identity.write(out);
+                out.writeInt(waveform.sampleRate());
+                out.writeLong(waveform.totalSamples());
+                Level level = waveform.levels()[0];
+                out.writeInt(level.blockSamples());
+                out.writeInt(level.blocks());
+                for (int i = 0; i < level.blocks(); i++) {
+                    out.writeShort(quantize(level.min()[i]));
+                    out.writeShort(quantize(level.max()[i]));
+                    out.writeShort(quantize(level.rms()[i]));
+                }
+            }
+        } catch (ClosedByInterruptException e) {
+            return; // Cancelled while hashing the track, it'll be saved next time
+        } catch (IOException e) {
+            System.out.println("Couldn't save the waveform of " + file.getAbsolutePath() + " to " + sidecar.getName());
+        }
+    }
+
+    private short quantize(float value) {
+        return (short) Math.round(Math.max(-1, Math.min(1, value)) * scale);
+    }
+
+}
@@ -0,0 +1,127 @@
+package audiovisualizer.audio.spectrum;
+
+/**
+ * Fast Fourier transform of real input. The N real samples are packed into N/2 complex ones and transformed with an
+ * iterative radix 2 FFT, then the spectrum of the real signal is split back out of it, which is about half the work of a complex FFT.
+ * Twiddle factors and the bit reversal order are worked out once in the constructor and the work buffers are reused,
+ * so transforms don't allocate anything. Because of the shared buffers an instance shouldn't be used by more than one thread at a time. <p>
+ * {@link} https://en.wikipedia.org/wiki/Cooley%E2%80%93Tukey_FFT_algorithm
+ * {@link} http://www.robinscheibler.org/2013/02/13/real-fft.html
+ */
+public class RealFFT {
+
+    private final int size;
+    private final int half;
+    private final int[] bitReversed;
+    /**cos and sin of -2 pi k / (N/2) for the complex FFT*/
+    private final double[] cos, sin;
+    /**cos and sin of -2 pi k / N for splitting the real spectrum out*/
+    private final double[] splitCos, splitSin;
+    private final double[] re, im;
+    private final double[] spectrumRe, spectrumIm;
+
+    /**
+     * @param size number of real samples per transform, has to be a power of 2 that's at least 4
+     */
+    public RealFFT(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) throw new IllegalArgumentException("FFT size " + size + " isn't a power of 2 that's at least 4.");
+        this.size = size;
+        this.half = size / 2;
+        int bits = Integer.numberOfTrailingZeros(half);
+        bitReversed = new int[half];
+        for (int i = 0; i < half; i++) {
+            bitReversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new double[half / 2];
+        sin = new double[half / 2];
+        for (int i = 0; i < half / 2; i++) {
+            cos[i] = Math.cos(-2 * Math.PI * i / half);
+            sin[i] = Math.sin(-2 * Math.PI * i / half);
+        }
+        splitCos = new double[half];
+        splitSin = new double[half];
+        for (int i = 0; i < half; i++) {
+            splitCos[i] = Math.cos(-2 * Math.PI * i / size);
+            splitSin[i] = Math.sin(-2 * Math.PI * i / size);
+        }
+        re = new double[half];
+        im = new double[half];
+        spectrumRe = new double[half + 1];
+        spectrumIm = new double[half + 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of frequency bins in the output, N/2 + 1 going from 0 Hz up to the Nyquist frequency
+     */
+    public int bins() {
+        return half + 1;
+    }
+
+    /**
+     * Transforms N real samples.
+     * @param input N samples, isn't changed
+     * @param outRe real part of each bin, at least N/2 + 1 long
+     * @param outIm imaginary part of each bin, at least N/2 + 1 long
+     */
+    public void transform(double[] input, double[] outRe, double[] outIm) {
+        for (int i = 0; i < half; i++) {
+            int j = bitReversed[i];
+            re[j] = input[2 * i];
+            im[j] = input[2 * i + 1];
+        }
+        fft();
+        outRe[0] = re[0] + im[0];
+        outIm[0] = 0;
+        outRe[half] = re[0] - im[0];
+        outIm[half] = 0;
+        for (int k = 1; k < half; k++) {
+            // Even samples are the conjugate symmetric part of the packed spectrum, odd samples the conjugate antisymmetric part
+            double zr = re[k], zi = im[k];
+            double cr = re[half - k], ci = -im[half - k];
+            double evenRe = (zr + cr) / 2, evenIm = (zi + ci) / 2;
+            double oddRe = (zi - ci) / 2, oddIm = -(zr - cr) / 2;
+            double wr = splitCos[k], wi = splitSin[k];
+            outRe[k] = evenRe + wr * oddRe - wi * oddIm;
+            outIm[k] = evenIm + wr * oddIm + wi * oddRe;
+        }
+    }
+
+    /**
+     * Transforms N real samples and keeps only the magnitude of each bin.
+     * @param input N samples, isn't changed
+     * @param magnitudes gets the magnitude of each bin, at least N/2 + 1 long
+     */
+    public void magnitudes(double[] input, double[] magnitudes) {
+        transform(input, spectrumRe, spectrumIm);
+        for (int k = 0; k <= half; k++) {
+            magnitudes[k] = Math.sqrt(spectrumRe[k] * spectrumRe[k] + spectrumIm[k] * spectrumIm[k]);
+        }
+    }
+
+    /**
+     * In place complex FFT of the work buffers, which have to already be in bit reversed order.
+     */
+    private void fft() {
+        for (int length = 2; length <= half; length <<= 1) {
+            int halfLength = length >> 1;
+            int step = half / length;
+            for (int start = 0; start < half; start += length) {
+                for (int j = 0, t = 0; j < halfLength; j++, t += step) {
+                    int a = start + j;
+                    int b = a + halfLength;
+                    double tr = re[b] * cos[t] - im[b] * sin[t];
+                    double ti = re[b] * sin[t] + im[b] * cos[t];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+}
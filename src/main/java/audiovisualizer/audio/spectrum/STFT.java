@@ -0,0 +1,138 @@
+package audiovisualizer.audio.spectrum;
+
+import java.util.function.Consumer;
+
+/**
+ * Short-time Fourier transform that turns blocks of pcm into magnitude spectra of overlapping frames as they come in.
+ * Channels are averaged to mono, then every hop's worth of samples the last frame of audio is windowed and transformed.
+ * Everything is allocated in the constructor so running it alongside playback doesn't make garbage. <p>
+ * {@link} https://en.wikipedia.org/wiki/Short-time_Fourier_transform
+ */
+public class STFT {
+
+    private final RealFFT fft;
+    private final double[] window;
+    private final int size;
+    private final int hopSize;
+    private final int numChannels;
+    private final Consumer<double[]> listener;
+    /**Last frame's worth of mono samples, oldest gets overwritten first*/
+    private final double[] history;
+    private final double[] frame;
+    private final double[] magnitudes;
+    /**Scales magnitudes so a full scale sine that lands on a bin reads as about 1*/
+    private final double scale;
+    private int ringIndex = 0;
+    private int filled = 0;
+    private int samplesSinceFrame = 0;
+
+    /**
+     * @param size number of samples in each frame, has to be a power of 2
+     * @param hopSize number of samples between the start of each frame, at most the frame size
+     * @param window window function to apply to each frame
+     * @param numChannels number of channels in the pcm blocks that will be given
+     * @param listener gets the magnitude of each of the size/2 + 1 bins of every frame.
+     * The same array is reused for every frame so copy it if it needs to be kept.
+     */
+    public STFT(int size, int hopSize, WindowFunction window, int numChannels, Consumer<double[]> listener) {
+        if (hopSize < 1 || hopSize > size) throw new IllegalArgumentException("Hop size " + hopSize + " has to be between 1 and the frame size " + size + ".");
+        if (numChannels < 1) throw new IllegalArgumentException("Number of channels is < 1.");
+        if (listener == null) throw new IllegalArgumentException("Listener is null.");
+        this.fft = new RealFFT(size);
+        this.window = window.create(size);
+        this.size = size;
+        this.hopSize = hopSize;
+        this.numChannels = numChannels;
+        this.listener = listener;
+        this.history = new double[size];
+        this.frame = new double[size];
+        this.magnitudes = new double[fft.bins()];
+        double windowSum = 0;
+        for (double w : this.window) {
+            windowSum += w;
+        }
+        this.scale = 2 / windowSum;
+    }
+
+    /**
+     * @return frequency in Hz in the middle of a bin
+     */
+    public double binFrequency(int bin, double samplingFrequency) {
+        return bin * samplingFrequency / size;
+    }
+
+    /**
+     * Adds a block of samples between -1 and 1, like the ones from {@link audiovisualizer.audio.PCMConverter}.
+     * @param block samples split up by channel, block[channel][sample]
+     * @param length number of samples to use from each channel
+     */
+    public void process(double[][] block, int length) {
+        checkChannels(block.length);
+        for (int i = 0; i < length; i++) {
+            double val = 0;
+            for (int channel = 0; channel < numChannels; channel++) {
+                val += block[channel][i];
+            }
+            addSample(val / numChannels);
+        }
+    }
+
+    /**
+     * Adds a block of integer samples, the same thing {@link audiovisualizer.audio.AudioMagician#parsePCMData} gives.
+     * @param block samples split up by channel, block[channel][sample]
+     * @param length number of samples to use from each channel
+     * @param bitsPerSample bits each sample had, used to scale them to be between -1 and 1
+     */
+    public void process(int[][] block, int length, int bitsPerSample) {
+        checkChannels(block.length);
+        double fullScale = 1L << (bitsPerSample - 1);
+        for (int i = 0; i < length; i++) {
+            double val = 0;
+            for (int channel = 0; channel < numChannels; channel++) {
+                val += block[channel][i];
+            }
+            addSample(val / numChannels / fullScale);
+        }
+    }
+
+    /**
+     * Forgets the samples of the current frame, for when the audio jumps somewhere else.
+     */
+    public void reset() {
+        ringIndex = 0;
+        filled = 0;
+        samplesSinceFrame = 0;
+    }
+
+    private void checkChannels(int channels) {
+        if (channels < numChannels) throw new IllegalArgumentException("Block has " + channels + " channels but expected " + numChannels + ".");
+    }
+
+    private void addSample(double val) {
+        history[ringIndex] = val;
+        if (++ringIndex == size) ringIndex = 0;
+        if (filled < size) filled++;
+        samplesSinceFrame++;
+        if (filled == size && samplesSinceFrame >= hopSize) {
+            samplesSinceFrame = 0;
+            transformFrame();
+        }
+    }
+
+    private void transformFrame() {
+        // The ring index is the oldest sample so unroll the ring from there
+        int firstPart = size - ringIndex;
+        for (int i = 0; i < firstPart; i++) {
+            frame[i] = history[ringIndex + i] * window[i];
+        }
+        for (int i = firstPart; i < size; i++) {
+            frame[i] = history[i - firstPart] * window[i];
+        }
+        fft.magnitudes(frame, magnitudes);
+        for (int i = 0; i < magnitudes.length; i++) {
+            magnitudes[i] *= scale;
+        }
+        listener.accept(magnitudes);
+    }
+
+}
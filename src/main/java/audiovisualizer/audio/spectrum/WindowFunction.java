@@ -0,0 +1,29 @@
+package audiovisualizer.audio.spectrum;
+
+/**
+ * Window functions to taper frames before an FFT so the edges of the frame don't leak into every bin.
+ * These are the periodic versions, which is what you want when frames overlap. <p>
+ * {@link} https://en.wikipedia.org/wiki/Window_function
+ */
+public enum WindowFunction {
+    RECTANGULAR,
+    HANN,
+    BLACKMAN_HARRIS;
+
+    /**
+     * @param size number of samples in the window
+     * @return the value of the window at each sample
+     */
+    public double[] create(int size) {
+        double[] window = new double[size];
+        for (int n = 0; n < size; n++) {
+            double x = 2 * Math.PI * n / size;
+            window[n] = switch(this) {
+                case RECTANGULAR -> 1;
+                case HANN -> 0.5 - 0.5 * Math.cos(x);
+                case BLACKMAN_HARRIS -> 0.35875 - 0.48829 * Math.cos(x) + 0.14128 * Math.cos(2 * x) - 0.01168 * Math.cos(3 * x);
+            };
+        }
+        return window;
+    }
+}
@@ -1,90 +1,270 @@
 package audiovisualizer.gui;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Supplier;
+import java.util.concurrent.Future;
+import java.util.function.DoubleConsumer;
 
+import javax.sound.sampled.AudioFormat;
+
+import audiovisualizer.audio.AnalysisCache;
+import audiovisualizer.audio.AnalysisCache.Analysis;
+import audiovisualizer.audio.AnalysisCache.Decoded;
 import audiovisualizer.audio.AudioMagician;
+import audiovisualizer.audio.AudioMagician.Weighting;
 import audiovisualizer.audio.AudioPlayer;
+import audiovisualizer.audio.LoudnessMeter;
+import audiovisualizer.audio.PCMConverter;
+import audiovisualizer.audio.PCMConverter.SampleFormat;
+import audiovisualizer.audio.ParallelAnalyzer;
+import audiovisualizer.audio.PlaybackEngine;
+import audiovisualizer.audio.Waveform;
+import audiovisualizer.audio.WaveformCache;
+import audiovisualizer.mp3.ID3Tag;
+import audiovisualizer.mp3.MP3;
+import audiovisualizer.mp3.decoding.ID3Reader;
+import audiovisualizer.mp3.decoding.ParallelMP3Decoder;
 import audiovisualizer.wav.WAV;
 import audiovisualizer.wav.WavDecoder;
 import javafx.application.Platform;
-import javafx.scene.chart.LineChart;
-import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.XYChart;
-import javafx.scene.chart.XYChart.Series;
 
 public class MainChart {
+
+    /**Progress once the saved waveform is showing*/
+    private static final double savedProgress = 0.1;
+    /**Progress once the track is decoded and can be played*/
+    private static final double decodedProgress = 0.6;
     
-    private final AudioMagician magician = new AudioMagician();
-    public final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+    private final ParallelAnalyzer analyzer = new ParallelAnalyzer();
+    private final ParallelMP3Decoder mp3Decoder = new ParallelMP3Decoder();
+    private final ID3Reader id3Reader = new ID3Reader();
+    private final WaveformCache waveformCache = new WaveformCache();
+    private final AnalysisCache analysisCache = new AnalysisCache(analyzer);
     private final AudioPlayer player = new AudioPlayer();
-    private Supplier<File> currentFile;
-    private LineChart<Number, Number> chart;
-    private double[] samples = new double[0];
-    private int index = 0;
-    private boolean started = false;
+    private final WaveformCanvas canvas = new WaveformCanvas();
+    // Files get decoded and analyzed on this thread so the window doesn't freeze
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "File loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Only touched on the JavaFX thread
+    private Decoded currentTrack;
+    private Future<?> loading;
+    private int loads = 0; // Number of files picked, each load only shows its results if it's still the last one
+    // Written by the playback thread through the tap, read on the JavaFX thread
+    private volatile double momentaryLoudness = Double.NEGATIVE_INFINITY;
 
     public MainChart() {
-        setupChart();
+        // The cursor follows the clock of the line the audio is playing on so it can't drift away from the audio
+        canvas.setClock(player::positionSeconds, player::isPlaying);
+        canvas.setMeter(() -> momentaryLoudness);
+        player.addTap(new MeterTap());
     }
 
     public void start() {
+        if (currentTrack == null) return;
         clearData();
-        player.playAudioFile(currentFile.get());
-        started = true;
+        player.playPCM(currentTrack.pcm(), currentTrack.sampleRate(), currentTrack.bitsPerSample(), currentTrack.numChannels());
+        canvas.wake();
     }
 
-    public void setFile(File file) {
-        started = false;
+    /**
+     * How far behind the picture the audio is, see {@link AudioPlayer#outputLatencySeconds()}.
+     */
+    public double latencySeconds() {
+        return player.outputLatencySeconds();
+    }
+
+    /**
+     * Starts loading a file on the loading thread, cancelling the file that was loading before if there was one.
+     * The saved waveform shows first if there is one, then the waveform once the track is decoded and can be played,
+     * and then the loudness. Has to be called on the JavaFX thread.
+     * @param progress how far along the load is from 0 to 1, called on the JavaFX thread and with 1 when it's done or failed
+     */
+    public void setFile(File file, DoubleConsumer progress) {
+        String extension = getFileExtension(file);
+        if (!extension.equals("wav") && !extension.equals("mp3")) throw new IllegalArgumentException("Invalid File.");
+        if (loading != null) loading.cancel(true);
         clearData();
-        if (getFileExtension(file).equals("wav")) {
-            WAV wav = new WavDecoder().decode(file);
-            samples = magician.getAudioVolume(wav.data(), wav.sampleRate(), wav.bitsPerSample(), wav.numChannels());
-            currentFile = wav;
-        } else if (getFileExtension(file).equals("mp3")) {
+        currentTrack = null;
+        progress.accept(0);
+        loading = loader.submit(new Load(file, ++loads, progress));
+    }
+
+    private String title(File file) {
+        if (!getFileExtension(file).equals("mp3")) return file.getName();
+        ID3Tag tag = id3Reader.read(file);
+        String title = id3Reader.text(tag, "TIT2");
+        String artist = id3Reader.text(tag, "TPE1");
+        if (title == null) title = file.getName();
+        return artist != null ? artist + " - " + title : title;
+    }
 
+    /**
+     * Decodes a WAV or MP3 file, only called when the track isn't cached.
+     */
+    private Decoded decode(File file) {
+        if (getFileExtension(file).equals("wav")) {
+            WAV wav = new WavDecoder(true).decode(file);
+            return new Decoded(wav.data(), wav.sampleRate(), wav.bitsPerSample(), wav.numChannels());
         }
-        else throw new IllegalArgumentException("Invalid File.");
+        MP3 mp3 = mp3Decoder.decode(file);
+        return new Decoded(mp3.pcm(), mp3.sampleRate(), mp3.bitsPerSample(), mp3.numChannels());
     }
 
-    private void setupChart() {
-        NumberAxis xAxis = new NumberAxis(); 
-        NumberAxis yAxis = new NumberAxis();
-        xAxis.setLabel("Time/s");
-        xAxis.setAnimated(false); 
-        yAxis.setLabel("Relative Volume");
-        yAxis.setAnimated(false); 
-        chart = new LineChart<>(xAxis, yAxis);
-        chart.setTitle("Audio Graph");
-        chart.setAnimated(true);
-        chart.setStyle("-fx-background-color: lightgray");
-        chart.setCreateSymbols(false);
-        chart.setLegendVisible(false);
-        XYChart.Series<Number, Number> series = new XYChart.Series<>();
-        chart.getData().add(series);
-        service.scheduleAtFixedRate(() -> {
-            Platform.runLater(() -> {
-                if (index < samples.length && started) {
-                    Series<Number, Number> dataSeries = chart.getData().get(0);
-                    double x = index*AudioMagician.windowSeconds; // 400 ms window ??
-                    dataSeries.getData().add(new XYChart.Data<Number, Number>(x, samples[index]));
-                    index++;
-                }
-            });
-        }, 0, (long) (AudioMagician.windowSeconds*1000), TimeUnit.MILLISECONDS);
+    /**
+     * Hits, misses and evictions of the cache of decoded and analyzed tracks.
+     */
+    public AnalysisCache.Stats cacheStats() {
+        return analysisCache.stats();
     }
     
-    public LineChart<Number, Number> getChart() {
-        return chart;
+    public WaveformCanvas getChart() {
+        return canvas;
+    }
+
+    /**
+     * Stops drawing and lets go of the decoding and analysis threads, for when the app closes.
+     */
+    public void close() {
+        loader.shutdownNow();
+        canvas.stop();
+        player.close();
+        mp3Decoder.close();
+        analyzer.close();
     }
 
     private void clearData() {
-        chart.getData().get(0).getData().clear();
-        index = 0;
-        player.stopMediaPlayers();
+        player.stop();
+        momentaryLoudness = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Loads a file on the loading thread, handing each result to the JavaFX thread as soon as it's ready.
+     * Cancelling interrupts the thread, which stops the decoding or analysis it's waiting on.
+     */
+    private class Load implements Runnable {
+
+        private final File file;
+        private final int load;
+        private final DoubleConsumer progress;
+        private String title;
+        private Waveform waveform;
+        private boolean waveformShown = false; // Whether a waveform was handed to the canvas
+        private boolean trackShown = false; // Whether the decoded track was handed over
+
+        private Load(File file, int load, DoubleConsumer progress) {
+            this.file = file;
+            this.load = load;
+            this.progress = progress;
+        }
+
+        @Override
+        public void run() {
+            try {
+                title = file.getName();
+                waveform = waveformCache.load(file);
+                if (cancelled()) return;
+                if (waveform != null) {
+                    Waveform saved = waveform;
+                    waveformShown = true;
+                    publish(() -> {
+                        canvas.setTrack(saved, new double[0], AudioMagician.windowSeconds, file.getName());
+                        progress.accept(savedProgress);
+                    });
+                }
+                title = title(file);
+                if (cancelled()) return;
+                Analysis analysis = analysisCache.get(file, this::decode, AudioMagician.windowSeconds, AudioMagician.windowSeconds, Weighting.K_WEIGHTING);
+                if (cancelled()) return;
+                if (!trackShown) showDecoded(analysis.decoded()); // Came out of memory without decoding
+                publish(() -> {
+                    canvas.setLoudness(analysis.loudness(), AudioMagician.windowSeconds);
+                    progress.accept(1);
+                });
+            } catch (RuntimeException e) {
+                if (cancelled()) return; // Cancelled in the middle of decoding or analyzing
+                e.printStackTrace();
+                publish(() -> progress.accept(1));
+            }
+        }
+
+        private Decoded decode(File file) {
+            Decoded decoded = MainChart.this.decode(file);
+            // Stops the cache from analyzing or keeping a track nobody wants anymore
+            if (cancelled()) throw new IllegalStateException("Interrupted while loading.");
+            showDecoded(decoded);
+            return decoded;
+        }
+
+        /**
+         * Whether a newer file was picked, which interrupts this thread. File reads that get interrupted throw
+         * ClosedByInterruptException, which the caches and decoders turn into an IllegalStateException or an empty result.
+         */
+        private boolean cancelled() {
+            return Thread.currentThread().isInterrupted();
+        }
+
+        /**
+         * Shows the waveform, building and saving it if there wasn't a saved one, and lets the track be played.
+         */
+        private void showDecoded(Decoded decoded) {
+            trackShown = true;
+            if (waveform == null) {
+                waveform = Waveform.of(decoded.pcm(), decoded.sampleRate(), decoded.bitsPerSample(), decoded.numChannels());
+                waveformCache.save(file, waveform);
+            }
+            Waveform built = waveform;
+            String trackTitle = title;
+            boolean fresh = !waveformShown;
+            waveformShown = true;
+            publish(() -> {
+                if (fresh) canvas.setTrack(built, new double[0], AudioMagician.windowSeconds, trackTitle);
+                else canvas.setTitle(trackTitle);
+                currentTrack = decoded;
+                progress.accept(decodedProgress);
+            });
+        }
+
+        /**
+         * Runs an update on the JavaFX thread if no other file got picked since this one.
+         */
+        private void publish(Runnable update) {
+            Platform.runLater(() -> {
+                if (load == loads) update.run();
+            });
+        }
+
+    }
+
+    /**
+     * Measures the momentary loudness of exactly what's being played. Every track gets its own format object so it starts a new meter.
+     * Only ever runs on the playback thread.
+     */
+    private class MeterTap implements PlaybackEngine.Tap {
+
+        private AudioFormat format;
+        private SampleFormat sampleFormat;
+        private LoudnessMeter meter;
+        private double[][] block = new double[0][0];
+
+        @Override
+        public void played(ByteBuffer pcm, AudioFormat blockFormat) {
+            if (blockFormat != format) {
+                format = blockFormat;
+                sampleFormat = SampleFormat.of(format.getSampleSizeInBits(), false);
+                meter = new LoudnessMeter(format.getChannels(), format.getSampleRate());
+                meter.setMomentaryListener(loudness -> momentaryLoudness = loudness);
+            }
+            int frames = pcm.remaining() / format.getFrameSize();
+            if (block.length != format.getChannels() || block[0].length < frames) block = new double[format.getChannels()][frames];
+            PCMConverter.read(pcm, sampleFormat, format.getChannels(), block, 0, frames);
+            meter.process(block, frames);
+        }
+
     }
 
     private String getFileExtension(File file) {
@@ -3,6 +3,7 @@ package audiovisualizer.gui;
 import java.io.File;
 
 import javafx.scene.control.Button;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.layout.GridPane;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
@@ -13,6 +14,7 @@ public class TopPane extends GridPane {
     private final Stage stage;
     private final MainChart chart;  
     private final FileChooser chooser = new FileChooser();
+    private final ProgressBar progress = new ProgressBar(0);
     
     public TopPane(Stage stage, MainChart chart) {
         super();
@@ -31,11 +33,21 @@ public class TopPane extends GridPane {
         selectFile.setOnAction((e) -> {
             File file;
             if ((file = chooser.showOpenDialog(stage)) != null ) {
-                chart.setFile(file);
+                chart.setFile(file, this::showProgress);
             }
         });
+        progress.setVisible(false);
         add(startButton, 0, 0);
         add(selectFile, 1, 0);
+        add(progress, 2, 0);
+    }
+
+    /**
+     * Shows how far the file that's loading is, hiding the bar once it's done.
+     */
+    private void showProgress(double done) {
+        progress.setProgress(done);
+        progress.setVisible(done < 1);
     }
 
 }
@@ -0,0 +1,365 @@
+package audiovisualizer.gui;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+import audiovisualizer.audio.Waveform;
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws a whole track's waveform on a canvas, with its loudness drawn over the part that's been played. <p>
+ * Every column of pixels is the min and max of the audio under it, with the RMS as a darker band, summed up from the
+ * {@link Waveform} blocks so drawing doesn't depend on how long the track is. The columns in view are kept in ring buffers
+ * as wide as the canvas, so scrolling only sums up the columns that came into view. <p>
+ * An {@link AnimationTimer} checks the playback position on every pulse and only draws the columns the cursor moved over,
+ * everything only gets drawn again after zooming, scrolling or resizing. When the cursor runs off the right side the view pages along with it.
+ * The timer only runs while something is playing or there's something left to draw, otherwise it stops until {@link #wake()}. <p>
+ * Everything here is only touched on the JavaFX thread. <p>
+ * The mouse wheel zooms in and out around the pointer, dragging or scrolling sideways moves through the track.
+ */
+public class WaveformCanvas extends Pane {
+
+    private static final Color background = Color.LIGHTGRAY;
+    private static final Color unplayed = Color.gray(0.65);
+    private static final Color unplayedRms = Color.gray(0.45);
+    private static final Color played = Color.STEELBLUE;
+    private static final Color playedRms = Color.MIDNIGHTBLUE;
+    private static final Color loudnessColor = Color.ORANGERED;
+    private static final Color cursorColor = Color.BLACK;
+    private static final Color textColor = Color.BLACK;
+    private static final double minLoudness = -70; // LUFS at the bottom of the canvas, the top is 0 LUFS
+    private static final double zoomStep = 1.25;
+    private static final double titleHeight = 20;
+
+    private final Canvas canvas = new Canvas();
+    private final GraphicsContext graphics = canvas.getGraphicsContext2D();
+    private final AnimationTimer timer;
+    private Waveform waveform;
+    private double[] loudness = new double[0];
+    private double loudnessSeconds = 1; // Time between loudness values
+    private String title = "";
+    private DoubleSupplier position = () -> 0; // Seconds into the track that are playing
+    private BooleanSupplier playing = () -> false;
+    private DoubleSupplier meter = () -> Double.NaN; // Live loudness in LUFS, NaN to not show it
+    private double shownMeter = Double.NaN;
+    private boolean running = false; // Whether the timer is running
+    private boolean stopped = false; // Stopped for good
+
+    private double viewStart = 0; // Seconds at the left edge
+    private double secondsPerColumn = 0;
+    // Ring buffers of the columns in view, the leftmost column is at head
+    private float[] columnMin = new float[0];
+    private float[] columnMax = new float[0];
+    private float[] columnRms = new float[0];
+    private int head = 0;
+    private final float[] column = new float[3];
+    private boolean dirty = true; // Everything needs to be drawn again
+    private int cursorColumn = -1; // Where the cursor was last drawn
+    private double cursorSeconds = 0;
+    private double dragX;
+
+    public WaveformCanvas() {
+        getChildren().add(canvas);
+        setStyle("-fx-background-color: lightgray");
+        setOnScroll(e -> {
+            if (waveform == null) return;
+            if (e.getDeltaY() != 0) zoom(e.getDeltaY() > 0 ? 1 / zoomStep : zoomStep, e.getX());
+            if (e.getDeltaX() != 0) scrollColumns((int) -e.getDeltaX());
+        });
+        setOnMousePressed(e -> dragX = e.getX());
+        setOnMouseDragged(e -> {
+            int columns = (int) (dragX - e.getX());
+            if (columns == 0 || waveform == null) return;
+            dragX -= columns;
+            scrollColumns(columns);
+        });
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                draw();
+                if (!dirty && !playing.getAsBoolean()) {
+                    timer.stop();
+                    running = false;
+                }
+            }
+        };
+        wake();
+    }
+
+    /**
+     * Shows a new track from the start.
+     * @param loudness loudness in LUFS at even steps through the track
+     * @param loudnessSeconds time between loudness values
+     */
+    public void setTrack(Waveform waveform, double[] loudness, double loudnessSeconds, String title) {
+        this.waveform = waveform;
+        this.loudness = loudness;
+        this.loudnessSeconds = loudnessSeconds;
+        this.title = title;
+        viewStart = 0;
+        secondsPerColumn = 0;
+        fitColumns();
+    }
+
+    /**
+     * Swaps in the loudness of the track that's showing once it's been worked out, without moving the view.
+     * @param loudness loudness in LUFS at even steps through the track
+     * @param loudnessSeconds time between loudness values
+     */
+    public void setLoudness(double[] loudness, double loudnessSeconds) {
+        this.loudness = loudness;
+        this.loudnessSeconds = loudnessSeconds;
+        invalidate();
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+        invalidate();
+    }
+
+    /**
+     * Where the cursor gets its time from, both get called on the JavaFX thread every pulse while the timer runs.
+     * @param position gives the seconds into the track that are playing
+     * @param playing whether the position is moving, the timer stops once it isn't and everything's been drawn
+     */
+    public void setClock(DoubleSupplier position, BooleanSupplier playing) {
+        this.position = position;
+        this.playing = playing;
+        wake();
+    }
+
+    /**
+     * @param meter gives the loudness of what's playing in LUFS to show by the title, called on the JavaFX thread every pulse
+     */
+    public void setMeter(DoubleSupplier meter) {
+        this.meter = meter;
+        invalidate();
+    }
+
+    /**
+     * Starts the timer again if it stopped, for when playback starts.
+     */
+    public void wake() {
+        if (running || stopped) return;
+        running = true;
+        timer.start();
+    }
+
+    /**
+     * Stops drawing for good.
+     */
+    public void stop() {
+        stopped = true;
+        timer.stop();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double width = Math.floor(getWidth());
+        double height = Math.floor(getHeight());
+        if (width == canvas.getWidth() && height == canvas.getHeight()) return;
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+        fitColumns();
+    }
+
+    /**
+     * Makes the ring buffers as wide as the canvas and keeps the view inside the track, showing all of it if nothing was picked yet.
+     */
+    private void fitColumns() {
+        int width = (int) canvas.getWidth();
+        if (columnMin.length != width) {
+            columnMin = new float[width];
+            columnMax = new float[width];
+            columnRms = new float[width];
+        }
+        if (waveform != null && width > 0) {
+            double whole = waveform.durationSeconds() / width;
+            if (secondsPerColumn == 0 || secondsPerColumn > whole) secondsPerColumn = whole;
+            secondsPerColumn = Math.max(secondsPerColumn, minSecondsPerColumn());
+            viewStart = clampViewStart(viewStart);
+            summarizeColumns(0, width);
+        }
+        invalidate();
+    }
+
+    /**
+     * Zooms so the time under a point stays under it.
+     * @param factor how many times longer each column gets
+     * @param x point on the canvas to zoom around
+     */
+    private void zoom(double factor, double x) {
+        int width = columnMin.length;
+        if (width == 0) return;
+        double anchor = viewStart + x * secondsPerColumn;
+        double zoomed = Math.max(minSecondsPerColumn(), Math.min(secondsPerColumn * factor, waveform.durationSeconds() / width));
+        if (zoomed == secondsPerColumn) return;
+        secondsPerColumn = zoomed;
+        viewStart = clampViewStart(anchor - x * secondsPerColumn);
+        summarizeColumns(0, width);
+        invalidate();
+    }
+
+    /**
+     * Moves the view by whole columns, only summing up the ones that come into view.
+     * @param columns how far to move, positive is later in the track
+     */
+    private void scrollColumns(int columns) {
+        int width = columnMin.length;
+        if (width == 0) return;
+        double target = clampViewStart(viewStart + columns * secondsPerColumn);
+        int shift = (int) Math.round((target - viewStart) / secondsPerColumn);
+        if (shift == 0) return;
+        if (Math.abs(shift) >= width || target != viewStart + shift * secondsPerColumn) {
+            viewStart = target;
+            summarizeColumns(0, width);
+        } else {
+            viewStart += shift * secondsPerColumn;
+            head = Math.floorMod(head + shift, width);
+            if (shift > 0) summarizeColumns(width - shift, width);
+            else summarizeColumns(0, -shift);
+        }
+        invalidate();
+    }
+
+    /**
+     * Works out the columns from one x to another, not including the last one.
+     */
+    private void summarizeColumns(int from, int to) {
+        int width = columnMin.length;
+        for (int x = from; x < to; x++) {
+            double start = viewStart + x * secondsPerColumn;
+            waveform.summarize(start, start + secondsPerColumn, column);
+            int i = (head + x) % width;
+            columnMin[i] = column[0];
+            columnMax[i] = column[1];
+            columnRms[i] = column[2];
+        }
+    }
+
+    /**
+     * Marks everything to be drawn again on the next pulse.
+     */
+    private void invalidate() {
+        dirty = true;
+        wake();
+    }
+
+    private double minSecondsPerColumn() {
+        return (double) waveform.blockSamples() / waveform.sampleRate();
+    }
+
+    private double clampViewStart(double start) {
+        double end = waveform.durationSeconds() - columnMin.length * secondsPerColumn;
+        return Math.max(0, Math.min(start, end));
+    }
+
+    /**
+     * Called every pulse, draws everything if it's dirty, otherwise only the columns between where the cursor was and where it is now.
+     */
+    private void draw() {
+        int width = columnMin.length;
+        if (waveform == null || width == 0) {
+            if (dirty) {
+                graphics.setFill(background);
+                graphics.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+                dirty = false;
+            }
+            return;
+        }
+        cursorSeconds = position.getAsDouble();
+        int cursor = (int) Math.floor((cursorSeconds - viewStart) / secondsPerColumn);
+        if (cursorColumn >= 0 && cursorColumn < width && cursor >= width && viewStart + width * secondsPerColumn < waveform.durationSeconds()) {
+            scrollColumns(width); // Keep up with the cursor a page at a time
+            cursor = (int) Math.floor((cursorSeconds - viewStart) / secondsPerColumn);
+        }
+        double loudnessNow = meter.getAsDouble();
+        if (dirty || Double.compare(loudnessNow, shownMeter) != 0) {
+            shownMeter = loudnessNow;
+            drawTitle();
+        }
+        if (dirty) {
+            drawColumns(0, width - 1);
+            dirty = false;
+        } else if (cursor != cursorColumn) {
+            drawColumns(Math.min(cursor, cursorColumn), Math.max(cursor, cursorColumn));
+        } else {
+            return;
+        }
+        cursorColumn = cursor;
+        if (cursor >= 0 && cursor < width) {
+            graphics.setFill(cursorColor);
+            graphics.fillRect(cursor, titleHeight, 1, canvas.getHeight() - titleHeight);
+        }
+    }
+
+    private void drawTitle() {
+        graphics.setFill(background);
+        graphics.fillRect(0, 0, canvas.getWidth(), titleHeight);
+        graphics.setFill(textColor);
+        graphics.fillText(title, 4, titleHeight - 5);
+        double viewEnd = viewStart + columnMin.length * secondsPerColumn;
+        graphics.fillText(formatTime(viewStart) + " - " + formatTime(viewEnd), Math.max(4, canvas.getWidth() - 110), titleHeight - 5);
+        if (!Double.isNaN(shownMeter)) {
+            String level = Double.isInfinite(shownMeter) ? "-inf" : String.format("%.1f", shownMeter);
+            graphics.fillText("Momentary " + level + " LUFS", Math.max(4, canvas.getWidth() - 260), titleHeight - 5);
+        }
+    }
+
+    /**
+     * Draws the columns from one x to another, including both, clamped to the canvas.
+     */
+    private void drawColumns(int from, int to) {
+        int width = columnMin.length;
+        from = Math.max(from, 0);
+        to = Math.min(to, width - 1);
+        double top = titleHeight;
+        double height = canvas.getHeight() - titleHeight;
+        double middle = top + height / 2;
+        double scale = height / 2;
+        for (int x = from; x <= to; x++) {
+            graphics.setFill(background);
+            graphics.fillRect(x, top, 1, height);
+            int i = (head + x) % width;
+            if (Float.isNaN(columnMin[i])) continue;
+            double start = viewStart + x * secondsPerColumn;
+            boolean isPlayed = start < cursorSeconds;
+            graphics.setFill(isPlayed ? played : unplayed);
+            graphics.fillRect(x, middle - columnMax[i] * scale, 1, Math.max(1, (columnMax[i] - columnMin[i]) * scale));
+            graphics.setFill(isPlayed ? playedRms : unplayedRms);
+            graphics.fillRect(x, middle - columnRms[i] * scale, 1, Math.max(1, 2 * columnRms[i] * scale));
+            if (isPlayed && loudness.length > 0) {
+                // A line from the loudness at the start of the column to the end, so the columns join up
+                double y1 = loudnessY(loudnessAt(start), top, height);
+                double y2 = loudnessY(loudnessAt(Math.min(start + secondsPerColumn, cursorSeconds)), top, height);
+                graphics.setFill(loudnessColor);
+                graphics.fillRect(x, Math.min(y1, y2), 1, Math.abs(y2 - y1) + 1);
+            }
+        }
+    }
+
+    /**
+     * Linearly interpolates between the loudness values, each one is for the window starting at its time.
+     */
+    private double loudnessAt(double seconds) {
+        double point = Math.max(0, seconds / loudnessSeconds);
+        int i = Math.min((int) point, loudness.length - 1);
+        double next = i + 1 < loudness.length ? loudness[i + 1] : loudness[i];
+        return loudness[i] + (next - loudness[i]) * Math.min(point - i, 1);
+    }
+
+    private double loudnessY(double lufs, double top, double height) {
+        double fraction = Double.isNaN(lufs) ? 0 : Math.max(0, Math.min((lufs - minLoudness) / -minLoudness, 1));
+        return top + (1 - fraction) * (height - 1);
+    }
+
+    private String formatTime(double seconds) {
+        int whole = (int) seconds;
+        return String.format("%d:%02d.%d", whole / 60, whole % 60, (int) ((seconds - whole) * 10));
+    }
+
+}
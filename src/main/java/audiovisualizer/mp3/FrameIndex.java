@@ -0,0 +1,43 @@
+package audiovisualizer.mp3;
+
+import java.util.Arrays;
+
+/**
+ * Where every frame of an MP3 starts, both as a byte offset in the file and as the first sample it decodes to.
+ * Built by {@link audiovisualizer.mp3.decoding.FrameIndexer} so a range of time can be decoded without reading the frames before it.
+ */
+public record FrameIndex(
+
+    int sampleRate, // In Hz, taken from the first frame
+    long[] offsets, // Byte offset of each frame's header
+    long[] firstSamples, // Sample each frame starts on, per channel
+    long totalSamples // Samples per channel in the whole file
+
+) {
+
+    public int frameCount() {
+        return offsets.length;
+    }
+
+    public double durationSeconds() {
+        return (double) totalSamples / sampleRate;
+    }
+
+    /**
+     * @return the frame that has a sample in it, clamped to the first and last frame
+     */
+    public int frameAt(long sample) {
+        if (offsets.length == 0) return -1;
+        int i = Arrays.binarySearch(firstSamples, sample);
+        if (i < 0) i = -i - 2; // Insertion point is the frame after the one containing the sample
+        return Math.max(0, Math.min(i, offsets.length - 1));
+    }
+
+    /**
+     * @return the frame that's playing at a time, clamped to the first and last frame
+     */
+    public int frameAt(double seconds) {
+        return frameAt((long) Math.floor(seconds * sampleRate));
+    }
+
+}
@@ -0,0 +1,57 @@
+package audiovisualizer.mp3;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Where the ID3v2 frames at the start of an MP3 are, without any of their contents.
+ * Built by {@link audiovisualizer.mp3.decoding.ID3Reader}, which also reads a frame's text or picture when it's asked for,
+ * so a tag with a big picture in it costs the same to index as one without. <p>
+ * {@link} https://id3.org/id3v2.4.0-structure
+ * {@link} https://id3.org/id3v2.3.0
+ */
+public record ID3Tag(
+
+    File file,
+    int majorVersion, // 3 or 4 for ID3v2.3 and ID3v2.4, of the first tag
+    long length, // Bytes taken up by the tags, which is where the audio starts
+    List<Frame> frames
+
+) {
+
+    /**
+     * One frame of a tag.
+     */
+    public record Frame(
+
+        String id, // Like TIT2 for the title or APIC for a picture
+        long offset, // Byte offset of the contents in the file
+        int size, // Bytes of contents as they're stored
+        boolean unsynchronised, // Contents have a 0 after every 0xFF that has to be taken out
+        boolean unreadable // Contents are compressed or encrypted
+
+    ) {}
+
+    /**
+     * A picture from an APIC frame, like the album cover.
+     */
+    public record Picture(
+
+        String mimeType, // Like image/jpeg
+        int pictureType, // 3 is the front cover, see the ID3v2 spec for the rest
+        String description,
+        byte[] data
+
+    ) {}
+
+    /**
+     * @return the first frame with an ID, or null if there isn't one
+     */
+    public Frame frame(String id) {
+        for (Frame frame : frames) {
+            if (frame.id().equals(id)) return frame;
+        }
+        return null;
+    }
+
+}
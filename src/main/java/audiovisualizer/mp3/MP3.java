@@ -1,16 +1,56 @@
 package audiovisualizer.mp3;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
 import java.util.function.Supplier;
 
 public record MP3(
 
     File file,
-    List<MP3Frame> frames
-    
+    List<MP3Frame> frames,
+    ByteBuffer pcm // Every frame's audio back to back, see pcm()
+
 ) implements Supplier<File> {
     public File get() {
         return file;
     }
-}
\ No newline at end of file
+
+    /**
+     * Sampling frequency in Hz of the first frame, 0 if there aren't any frames.
+     */
+    public int sampleRate() {
+        return frames.isEmpty() ? 0 : frames.get(0).header().sampleRate();
+    }
+
+    public int numChannels() {
+        return frames.isEmpty() ? 0 : frames.get(0).header().mode() == MP3Header.Mode.SINGLE_CHANNEL ? 1 : 2;
+    }
+
+    /**
+     * Number of frames that had error protection and failed their CRC, what happened to their audio depends on the decoder's {@link audiovisualizer.mp3.decoding.MP3Decoder.CrcPolicy}.
+     */
+    public int crcFailures() {
+        int failures = 0;
+        for (MP3Frame frame : frames) {
+            if (!frame.passedCrc()) failures++;
+        }
+        return failures;
+    }
+
+    /**
+     * Decoded samples are always 16 bits.
+     */
+    public int bitsPerSample() {
+        return 16;
+    }
+
+    /**
+     * All the decoded audio as little endian 16 bit pcm with the channels interleaved, the same layout as WAV data.
+     * Each frame's audio starts at its {@link MP3Frame#firstSample()}. Every call gets its own position and limit over the same memory.
+     */
+    public ByteBuffer pcm() {
+        return pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -4,7 +4,8 @@ public record MP3Frame(
     MP3Header header,
     short crcToCheck, // -1 if there isn't error protection for this frame.
     boolean passedCrc, // Always true if there isn't error protection for this frame.
-    int[][][] pcm,
+    long firstSample, // Where this frame's audio starts in the pcm it was decoded into, per channel.
+    int samples, // Samples per channel.
     byte[] ancillaryData
 ) {
     
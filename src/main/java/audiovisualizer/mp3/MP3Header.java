@@ -1,5 +1,9 @@
 package audiovisualizer.mp3;
 
+/**
+ * The sample rate, frame length and samples per frame get worked out once when the header is made,
+ * since they're asked for on every frame.
+ */
 public record MP3Header(
 
     MPEGVersion version,
@@ -14,9 +18,42 @@ public record MP3Header(
     boolean msStereo,
     boolean copyrighted,
     boolean original,
-    Emphasis emphasis
+    Emphasis emphasis,
+    int sampleRate, // Sampling frequency in Hz
+    int frameLength, // Length of the whole frame in bytes including the header, or 0 for free format streams
+    int samplesPerFrame // Number of samples per channel in the frame
     
 ) {
+
+    public MP3Header(MPEGVersion version, Layer layer, boolean errorProtection, double bitrate, double samplingFrequency, boolean padded,
+            Mode mode, int modeExtensionNumber, boolean intensityStereo, boolean msStereo, boolean copyrighted, boolean original, Emphasis emphasis) {
+        this(version, layer, errorProtection, bitrate, samplingFrequency, padded, mode, modeExtensionNumber, intensityStereo, msStereo,
+            copyrighted, original, emphasis, (int) Math.round(samplingFrequency * 1000),
+            frameLength(version, layer, bitrate, (int) Math.round(samplingFrequency * 1000), padded), samplesPerFrame(version, layer));
+    }
+
+    /**
+     * {@link} http://www.mp3-tech.org/programmer/frame_header.html
+     */
+    private static int frameLength(MPEGVersion version, Layer layer, double bitrate, int sampleRate, boolean padded) {
+        if (bitrate <= 0) return 0;
+        int padding = padded ? 1 : 0;
+        int bitsPerSecond = (int) bitrate * 1000;
+        return switch(layer) {
+            case LAYER1 -> (12 * bitsPerSecond / sampleRate + padding) * 4;
+            case LAYER2 -> 144 * bitsPerSecond / sampleRate + padding;
+            case LAYER3 -> (version == MPEGVersion.MPEG_1 ? 144 : 72) * bitsPerSecond / sampleRate + padding;
+        };
+    }
+
+    private static int samplesPerFrame(MPEGVersion version, Layer layer) {
+        return switch(layer) {
+            case LAYER1 -> 384;
+            case LAYER2 -> 1152;
+            case LAYER3 -> version == MPEGVersion.MPEG_1 ? 1152 : 576;
+        };
+    }
+
     public enum MPEGVersion {
         MPEG_1,
         MPEG_2,
@@ -0,0 +1,69 @@
+package audiovisualizer.mp3;
+
+/**
+ * The tag some encoders put in the first frame of an MP3 instead of audio, so the length of a VBR file is known without reading all of it.
+ * Xing tags are written by LAME and most other encoders (called Info in CBR files), VBRI tags by the Fraunhofer encoder.
+ * LAME adds its own tag after the Xing one with how much silence the encoder added at each end, so that can be cut off. <p>
+ * {@link} http://gabriel.mp3-tech.org/mp3infotag.html
+ * {@link} https://www.codeproject.com/Articles/8295/MPEG-Audio-Frame-Header
+ */
+public record VBRHeader(
+
+    Kind kind,
+    long offset, // Byte offset of the frame the tag is in
+    int sampleRate, // In Hz
+    int samplesPerFrame,
+    int frames, // Audio frames after the tag's frame, -1 if the tag doesn't say
+    long bytes, // Bytes of audio starting from the tag's frame, -1 if the tag doesn't say
+    long[] toc, // Byte offsets from the tag's frame at evenly spaced points in time, empty if there isn't a table
+    int encoderDelay, // Samples of silence the encoder added at the start, -1 without a LAME tag
+    int encoderPadding // Samples of silence the encoder added at the end, -1 without a LAME tag
+
+) {
+
+    public enum Kind {
+        XING,
+        INFO,
+        VBRI
+    }
+
+    /**
+     * Whether the encoder delay and padding are known so the audio can be trimmed to exactly what was encoded.
+     */
+    public boolean gapless() {
+        return frames >= 0 && encoderDelay >= 0 && encoderPadding >= 0;
+    }
+
+    /**
+     * Samples per channel of the original audio, without the encoder delay and padding if they're known. -1 if the tag doesn't have a frame count.
+     */
+    public long totalSamples() {
+        if (frames < 0) return -1;
+        long samples = (long) frames * samplesPerFrame;
+        return gapless() ? Math.max(0, samples - encoderDelay - encoderPadding) : samples;
+    }
+
+    /**
+     * @return the length in seconds, or -1 if the tag doesn't have a frame count
+     */
+    public double durationSeconds() {
+        return frames < 0 ? -1 : (double) totalSamples() / sampleRate;
+    }
+
+    /**
+     * Guesses where in the file a time is from the table of contents, or spreads the bytes evenly if there isn't one.
+     * The guess lands somewhere in a frame so a sync word still has to be found from there.
+     * @return byte offset in the file
+     */
+    public long seekPosition(double seconds) {
+        double duration = durationSeconds();
+        if (duration <= 0 || bytes <= 0) return offset;
+        double fraction = Math.max(0, Math.min(seconds / duration, 1));
+        if (toc.length == 0) return offset + (long) (fraction * bytes);
+        double point = fraction * toc.length;
+        int i = Math.min((int) point, toc.length - 1);
+        long after = i + 1 < toc.length ? toc[i + 1] : bytes;
+        return offset + toc[i] + (long) ((after - toc[i]) * (point - i));
+    }
+
+}
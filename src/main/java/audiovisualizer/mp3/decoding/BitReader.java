@@ -0,0 +1,244 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads bits most significant first out of a buffer that holds the whole stream, so reading never costs a system call.
+ * Bits are kept in a 64 bit cache that gets refilled 8 bytes at a time, and since the buffer is random access
+ * the reader can peek ahead, mark and reset, and jump to any position.
+ * Positions are in bytes unless they say they're in bits.
+ */
+public class BitReader {
+
+    /**Files bigger than this get memory mapped instead of read onto the heap*/
+    private static final long mapThreshold = 16 * 1024 * 1024;
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    /**Unread bits, lined up with the most significant bit*/
+    private long cache = 0L;
+    private int cacheBits = 0;
+    /**Index of the next byte to load into the cache*/
+    private int bytePosition = 0;
+    private long markedBit = 0;
+
+    /**
+     * @param buffer stream to read, starting from its position. The buffer's own position isn't used after this.
+     */
+    public BitReader(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+        this.limit = this.buffer.limit();
+    }
+
+    /**
+     * Loads a whole file in one bulk read, or memory maps it if it's big.
+     */
+    public static BitReader open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("File " + file.getName() + " is bigger than 2 GB.");
+            if (size > mapThreshold) {
+                return new BitReader(channel.map(MapMode.READ_ONLY, 0, size));
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1);
+            return new BitReader(buffer.flip());
+        }
+    }
+
+    /**
+     * Another reader over the same bytes that starts at the beginning. Nothing is copied and reads never change the buffer,
+     * so each thread can have its own reader of one file.
+     */
+    public BitReader duplicate() {
+        return new BitReader(buffer.duplicate());
+    }
+
+    /**
+     * Reads the next n bits as an unsigned number.
+     * @param len number of bits, up to 32
+     * @return the bits, or -1 without reading anything if there aren't that many bits left
+     */
+    public int readNBits(int len) {
+        if (len > 32) throw new IllegalArgumentException("Can't read " + len + " bits into an int.");
+        if (len <= 0) return 0;
+        if (cacheBits < len) {
+            refill();
+            if (cacheBits < len) return -1;
+        }
+        int val = (int) (cache >>> (64 - len));
+        cache <<= len;
+        cacheBits -= len;
+        return val;
+    }
+
+    /**
+     * Reads the next n bits without moving past them.
+     * @param len number of bits, up to 32
+     * @return the bits, or -1 if there aren't that many bits left
+     */
+    public int peekBits(int len) {
+        if (len > 32) throw new IllegalArgumentException("Can't peek " + len + " bits into an int.");
+        if (len <= 0) return 0;
+        if (cacheBits < len) {
+            refill();
+            if (cacheBits < len) return -1;
+        }
+        return (int) (cache >>> (64 - len));
+    }
+
+    /**
+     * Reads the next byte, or -1 if the end of the stream was reached.
+     */
+    public int read() {
+        return readNBits(8);
+    }
+
+    /**
+     * Reads bytes into an array that already exists. Copies straight out of the buffer when on a byte boundary.
+     * @return number of bytes read, less than asked for only at the end of the stream
+     */
+    public int readBytes(byte[] dst, int offset, int length) {
+        if ((cacheBits & 7) != 0) {
+            for (int i = 0; i < length; i++) {
+                int b = readNBits(8);
+                if (b == -1) return i;
+                dst[offset + i] = (byte) b;
+            }
+            return length;
+        }
+        int read = 0;
+        while (cacheBits > 0 && read < length) { // whatever bytes are already cached come first
+            dst[offset + read++] = (byte) readNBits(8);
+        }
+        int bulk = Math.min(length - read, limit - bytePosition);
+        buffer.get(bytePosition, dst, offset + read, bulk);
+        bytePosition += bulk;
+        return read + bulk;
+    }
+
+    /**
+     * Reads bytes into a new array, bytes past the end of the stream are 0.
+     */
+    public byte[] readNBytes(int len) {
+        byte[] arr = new byte[len];
+        readBytes(arr, 0, len);
+        return arr;
+    }
+
+    /**
+     * Brings you to a byte boundary.
+     * @return Whether or not you were already on a byte boundary.
+     */
+    public boolean assertByteBoundary() {
+        int extra = cacheBits & 7;
+        skipBits(extra);
+        return extra == 0;
+    }
+
+    /**
+     * Skips over bits, forwards only.
+     */
+    public void skipBits(long n) {
+        if (n <= cacheBits) {
+            cache <<= n;
+            cacheBits -= n;
+            if (cacheBits == 0) cache = 0;
+            return;
+        }
+        bitPosition(bitPosition() + n);
+    }
+
+    /**
+     * Moves to the next byte boundary and then n bytes from there, backwards if n is negative.
+     * @return number of bytes actually skipped
+     */
+    public long skip(long n) {
+        assertByteBoundary();
+        long start = position();
+        position(Math.max(0, Math.min(start + n, limit)));
+        return position() - start;
+    }
+
+    /**
+     * @return the position of the next unread byte, if part of a byte has been read this is that byte
+     */
+    public long position() {
+        return bitPosition() >>> 3;
+    }
+
+    /**
+     * Jumps to a byte.
+     */
+    public void position(long position) {
+        if (position < 0 || position > limit) throw new IllegalArgumentException("Position " + position + " is outside of the stream.");
+        bytePosition = (int) position;
+        cache = 0;
+        cacheBits = 0;
+    }
+
+    public long bitPosition() {
+        return (long) bytePosition * 8 - cacheBits;
+    }
+
+    /**
+     * Jumps to a bit.
+     */
+    public void bitPosition(long bitPosition) {
+        position(Math.min(bitPosition >>> 3, limit));
+        int bits = (int) (bitPosition & 7);
+        if (bits == 0) return;
+        refill();
+        skipBits(Math.min(bits, cacheBits));
+    }
+
+    /**
+     * Remembers the current position to go back to with {@link #reset()}.
+     */
+    public void mark() {
+        markedBit = bitPosition();
+    }
+
+    /**
+     * Goes back to the last position that was marked, or the start if nothing was.
+     */
+    public void reset() {
+        bitPosition(markedBit);
+    }
+
+    /**
+     * @return number of bytes from the current position to the end of the stream
+     */
+    public long remaining() {
+        return limit - position();
+    }
+
+    /**
+     * Length of the whole stream in bytes.
+     */
+    public long length() {
+        return limit;
+    }
+
+    private void refill() {
+        if (bytePosition + 8 <= limit) {
+            long word = buffer.getLong(bytePosition);
+            int take = (64 - cacheBits) >>> 3; // whole bytes that fit in the cache
+            int unused = 64 - cacheBits - take * 8; // low bits of the shifted word that belong to a byte that wasn't taken
+            cache |= (word >>> cacheBits) & ~((1L << unused) - 1);
+            cacheBits += take * 8;
+            bytePosition += take;
+            return;
+        }
+        while (cacheBits <= 56 && bytePosition < limit) {
+            cache |= (buffer.get(bytePosition++) & 0xFFL) << (56 - cacheBits);
+            cacheBits += 8;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package audiovisualizer.mp3.decoding;
+
+/**
+ * The CRC-16 that protects MPEG audio frames, polynomial 0x8005 starting from 0xFFFF, most significant bit first.
+ * It covers the last 2 bytes of the header and then some number of bits after the CRC itself,
+ * which are the bit allocation for Layer I, the bit allocation and scfsi for Layer II and the side info for Layer III.
+ * Whole bytes go through a lookup table and only the leftover bits at the end are done one at a time. <p>
+ * {@link} https://www.iso.org/standard/22412.html Section 2.4.3.1 and Annex A.9
+ */
+class CRC16 {
+
+    private static final int polynomial = 0x8005;
+    private static final int[] table = new int[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int crc = b << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ polynomial : crc << 1;
+            }
+            table[b] = crc & 0xFFFF;
+        }
+    }
+
+    private CRC16() {}
+
+    /**
+     * Works out the CRC of a frame, leaving the stream where it was.
+     * @param frameStart position of the frame's first byte
+     * @param protectedBits number of bits after the CRC that are covered
+     */
+    static int compute(BitReader stream, long frameStart, int protectedBits) {
+        long position = stream.bitPosition();
+        stream.position(frameStart + 2);
+        int crc = 0xFFFF;
+        crc = update(crc, stream.read());
+        crc = update(crc, stream.read());
+        stream.skip(2); // The CRC itself
+        for (int i = 0; i < protectedBits >> 3; i++) {
+            crc = update(crc, stream.read());
+        }
+        for (int i = 0; i < (protectedBits & 7); i++) {
+            int top = ((crc >>> 15) ^ stream.readNBits(1)) & 1;
+            crc = (top != 0 ? (crc << 1) ^ polynomial : crc << 1) & 0xFFFF;
+        }
+        stream.bitPosition(position);
+        return crc;
+    }
+
+    private static int update(int crc, int b) {
+        return ((crc << 8) ^ table[((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+    }
+
+}
@@ -0,0 +1,191 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+
+import audiovisualizer.mp3.FrameIndex;
+import audiovisualizer.mp3.MP3Header;
+
+/**
+ * Finds where every frame in an MP3 starts without decoding any audio. Each header gives the length of its frame,
+ * so the indexer jumps straight to the next header instead of looking at every byte. A frame is only trusted if the frame before it
+ * led to it, or if the header right after it is a valid header of the same stream, which keeps sync words hiding in audio data or
+ * album art from being mistaken for frames. <p>
+ * The index is saved next to the MP3 as a small sidecar file so opening the file again doesn't need a scan. <p>
+ * {@link} http://www.mp3-tech.org/programmer/frame_header.html
+ */
+public class FrameIndexer {
+
+    private static final int magic = 0x4D504958; // "MPIX"
+    private static final int formatVersion = 2;
+    /**Smallest frame there is, MPEG 2 Layer III at 8 kbps and 24 kHz*/
+    private static final int minFrameLength = 24;
+
+    private final HeaderDecoder headerDecoder = new HeaderDecoder();
+    private final VBRHeaderReader vbrHeaderReader = new VBRHeaderReader();
+
+    /**
+     * @return where the index of an MP3 gets saved
+     */
+    public static File sidecarFile(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    /**
+     * Loads the index of an MP3 from its sidecar file, or scans the MP3 and saves the sidecar file if there isn't an up to date one.
+     */
+    public FrameIndex index(File file) {
+        File sidecar = sidecarFile(file);
+        FrameIndex index = readSidecar(file, sidecar);
+        if (index != null) return index;
+        try {
+            index = scan(BitReader.open(file));
+        } catch (ClosedByInterruptException e) {
+            throw new IllegalStateException("Interrupted while indexing.", e);
+        } catch (IOException e) {
+            System.out.println("MP3 indexing error with file " + file.getAbsolutePath());
+            e.printStackTrace();
+            return new FrameIndex(0, new long[0], new long[0], 0);
+        }
+        writeSidecar(file, sidecar, index);
+        return index;
+    }
+
+    /**
+     * Indexes every frame in a stream from its start.
+     */
+    public FrameIndex scan(BitReader stream) throws IOException {
+        stream.position(0);
+        ID3Reader.skip(stream);
+        vbrHeaderReader.read(stream); // The frame with a Xing or VBRI tag has no audio in it
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, stream.length() / minFrameLength + 1);
+        long[] offsets = new long[Math.min(capacity, 1 << 16)];
+        long[] firstSamples = new long[offsets.length];
+        int count = 0;
+        long totalSamples = 0;
+        int sampleRate = 0;
+        MP3Header previous = null; // Last frame that was trusted, null after losing sync
+        long pos = stream.position();
+        while (pos != -1 && pos < stream.length()) {
+            MP3Header header = headerAt(stream, pos);
+            // Free format frames don't say how long they are, they're rare enough that they're treated like junk
+            if (header == null || header.frameLength() == 0 || (previous != null && !sameStream(previous, header))) {
+                previous = null;
+                pos = nextSyncWord(stream, pos + 1);
+                continue;
+            }
+            long next = pos + header.frameLength();
+            if (next > stream.length()) break; // Cut off frame at the end of the file
+            if (previous == null) {
+                // Starting over so the next header has to agree with this one, unless this frame runs right to the end
+                MP3Header following = next + 4 <= stream.length() ? headerAt(stream, next) : header;
+                if (following == null || !sameStream(header, following)) {
+                    pos = nextSyncWord(stream, pos + 1);
+                    continue;
+                }
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, (int) Math.min((long) count * 2, capacity));
+                firstSamples = Arrays.copyOf(firstSamples, offsets.length);
+            }
+            if (count == 0) sampleRate = header.sampleRate();
+            offsets[count] = pos;
+            firstSamples[count] = totalSamples;
+            count++;
+            totalSamples += header.samplesPerFrame();
+            previous = header;
+            pos = next;
+        }
+        return new FrameIndex(sampleRate, Arrays.copyOf(offsets, count), Arrays.copyOf(firstSamples, count), totalSamples);
+    }
+
+    /**
+     * @return the header at a byte offset, or null if there isn't a valid one there
+     */
+    private MP3Header headerAt(BitReader stream, long pos) throws IOException {
+        if (pos + 4 > stream.length()) return null;
+        stream.position(pos);
+        if (!HeaderDecoder.isSyncWord(stream.peekBits(16))) return null;
+        stream.skip(1);
+        try {
+            return headerDecoder.readFrameHeader(stream);
+        } catch (StreamCorruptedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the position of the next sync word starting at a byte offset, or -1 if there isn't one
+     */
+    private long nextSyncWord(BitReader stream, long pos) {
+        if (pos >= stream.length()) return -1;
+        stream.position(pos);
+        int word;
+        while ((word = stream.peekBits(16)) != -1) {
+            if (HeaderDecoder.isSyncWord(word)) return stream.position();
+            stream.skip(1);
+        }
+        return -1;
+    }
+
+    private boolean sameStream(MP3Header a, MP3Header b) {
+        return a.version() == b.version() && a.layer() == b.layer() && a.samplingFrequency() == b.samplingFrequency();
+    }
+
+    /**
+     * @return the saved index, or null if there isn't one or it's for a different version of the file
+     */
+    private FrameIndex readSidecar(File file, File sidecar) {
+        if (!sidecar.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+            if (in.readInt() != magic || in.readInt() != formatVersion) return null;
+            if (in.readLong() != file.length() || in.readLong() != file.lastModified()) return null;
+            int sampleRate = in.readInt();
+            int count = in.readInt();
+            if (count < 0 || count > file.length() / minFrameLength + 1) return null;
+            long[] offsets = new long[count];
+            long[] firstSamples = new long[count];
+            long offset = 0;
+            long totalSamples = 0;
+            for (int i = 0; i < count; i++) {
+                offset += in.readInt(); // Distance from the last frame
+                offsets[i] = offset;
+                firstSamples[i] = totalSamples;
+                totalSamples += in.readUnsignedShort();
+            }
+            return new FrameIndex(sampleRate, offsets, firstSamples, totalSamples);
+        } catch (IOException e) {
+            return null; // Cut off or broken, it'll be scanned again
+        }
+    }
+
+    private void writeSidecar(File file, File sidecar, FrameIndex index) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+            out.writeInt(magic);
+            out.writeInt(formatVersion);
+            out.writeLong(file.length());
+            out.writeLong(file.lastModified());
+            out.writeInt(index.sampleRate());
+            out.writeInt(index.frameCount());
+            long offset = 0;
+            for (int i = 0; i < index.frameCount(); i++) {
+                out.writeInt((int) (index.offsets()[i] - offset));
+                offset = index.offsets()[i];
+                long end = i + 1 < index.frameCount() ? index.firstSamples()[i + 1] : index.totalSamples();
+                out.writeShort((int) (end - index.firstSamples()[i]));
+            }
+        } catch (IOException e) {
+            System.out.println("Couldn't save the frame index of " + file.getAbsolutePath() + " to " + sidecar.getName());
+        }
+    }
+
+}
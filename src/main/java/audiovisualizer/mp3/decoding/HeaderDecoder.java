@@ -2,6 +2,7 @@ package audiovisualizer.mp3.decoding;
 
 import java.io.IOException;
 import java.io.StreamCorruptedException;
+import java.util.Arrays;
 
 import audiovisualizer.mp3.MP3Header;
 import audiovisualizer.mp3.MP3Header.Emphasis;
@@ -32,51 +33,83 @@ public class HeaderDecoder {
         {11.025, 12, 8, -1} // MPEG_2_5
     };
 
+    /**Headers that have been parsed, picked by a hash of the header's bits. A header whose slot gets taken just gets parsed again*/
+    private static final int cacheBits = 6;
+    private final int[] cachedWords = new int[1 << cacheBits];
+    private final MP3Header[] cachedHeaders = new MP3Header[1 << cacheBits];
+
+    public HeaderDecoder() {
+        Arrays.fill(cachedWords, -1);
+    }
+
+    /**
+     * Checks the first 2 bytes of a frame for the sync word, which is 11 '1' bits, and that the version and layer aren't reserved.
+     * @param word the 2 bytes as the low 16 bits
+     */
+    static boolean isSyncWord(int word) {
+        int syncword1 = word >> 8;
+        int syncword2 = word & 0xFF;
+        return syncword1 == 0xFF && (syncword2 >> 5) == 7 && ((syncword2 & 0b00011000) >> 3 != 1) && ((syncword2 & 0b00000110) >> 1 != 0);
+    }
+
     /**
      * Reads an MP3 Frame header which is 3 bytes long and returns an MP3Header record by parsing the data from the 24 bits that contain the following: 
      * MPEG Version, MPEG Layer, Error Protection (boolean), Bitrate in kbps, Sampling Frequency in kHz, Frame Padded (boolean),
      * Channel Mode, Mode Extension Bands for Layers 1 & 2 or type of joint stereo for Layer 3 - when Channel Mode is JOINT_STEREO,
      * Copyrighted (boolean), Original or Copy (boolean), and the type of de-emphasis to use. <p>
+     * A file only ever has a few different headers, so each one is only parsed the first time it shows up and then comes out of a cache. <p>
      * {@link} https://en.wikipedia.org/wiki/MP3#/media/File:Mp3filestructure.svg
      * {@link} http://mpgedit.org/mpgedit/mpeg_format/mpeghdr.htm
      * {@link} http://www.mp3-tech.org/programmer/frame_header.html
      * @param stream MP3 file stream to read header from
      * @throws IOException if any corruptions or invalid values are found when trying to parse the header
      */
-    public MP3Header readFrameHeader(BitInputStream stream) throws IOException {
-        MP3Decoder.count++;
-        String headerPosition = Integer.toHexString(stream.getStreamPosition());
-        int headerInfo = stream.read();
+    public MP3Header readFrameHeader(BitReader stream) throws IOException {
+        long position = stream.position();
+        int word = stream.readNBits(24);
+        if (word == -1) throw new StreamCorruptedException("MP3 Header Invalid, cut off by the end of the stream. At Hex " + Long.toHexString(position));
+        int slot = (word * 0x9E3779B1) >>> (32 - cacheBits);
+        if (cachedWords[slot] == word) return cachedHeaders[slot];
+        MP3Header header = parse(word, position);
+        cachedWords[slot] = word;
+        cachedHeaders[slot] = header;
+        return header;
+    }
+
+    /**
+     * @param word the 3 bytes after the first byte of the sync word
+     * @param position where the header is, only for error messages
+     */
+    private MP3Header parse(int word, long position) throws IOException {
+        int headerInfo = word >> 16;
         int versionNumber = (headerInfo & 0b00011000) >> 3; // MPEG Audio version
         MPEGVersion version = switch(versionNumber) { // MPEG Audio version, 1 is reserved.
             case 0 -> MPEGVersion.MPEG_2_5;
             case 2 -> MPEGVersion.MPEG_2;
             case 3 -> MPEGVersion.MPEG_1;
-            default -> throw new StreamCorruptedException("MP3 Header Invalid Version Index " + versionNumber + ". At Hex " + headerPosition);
+            default -> throw invalid("Version Index " + versionNumber, position);
         };
         int layerNumber = (headerInfo & 0b00000110) >> 1; // MPEG Layer
         Layer layer = switch(layerNumber) { // MPEG Layer, 0 is reserved.
             case 1 -> Layer.LAYER3;
             case 2 -> Layer.LAYER2;
             case 3 -> Layer.LAYER1;
-            default -> throw new StreamCorruptedException("MP3 Header Invalid Layer Index " + layerNumber + ". At Hex " + headerPosition);
+            default -> throw invalid("Layer Index " + layerNumber, position);
         };
         boolean errorProtection = (headerInfo & 1) == 0; // Protection bit
-        int headerInfo2 = stream.read();
+        int headerInfo2 = (word >> 8) & 0xFF;
         double bitrate = bitrateTable[versionToIndex(version, true)][layerToIndex(layer)][headerInfo2 >> 4]; // Bitrate from index
         double frequency = frequencyTable[versionToIndex(version, false)][(headerInfo2 & 0b00001100) >> 2]; // Sampling rate frequency from index
         boolean padded = (headerInfo2 & 0b00000010) >> 1 == 1; // Padding bit
-        int headerInfo3 = stream.read();
+        int headerInfo3 = word & 0xFF;
         int modeNumber = (headerInfo3 >> 6); // Channel Mode
         Mode mode = switch(modeNumber) { // Channel Mode
             case 0 -> Mode.STEREO;
             case 1 -> Mode.JOINT_STEREO;
             case 2 -> Mode.DUAL_CHANNEL;
             case 3 -> Mode.SINGLE_CHANNEL;
-            default -> throw new StreamCorruptedException("MP3 Header Invalid Channel Mode Index " + modeNumber + ". At Hex " + headerPosition); // Shouldn't happen
+            default -> throw invalid("Channel Mode Index " + modeNumber, position); // Shouldn't happen
         };
-        // System.out.println(Integer.toBinaryString(headerInfo3));
-        // System.out.println(mode + " " + modeNumber);
         int modeExtensionNumber = (headerInfo3 & 0b00110000) >> 4; // Mode extension (Only if Joint stereo)
         boolean intensityStereo = (mode == Mode.JOINT_STEREO);
         boolean msStereo = false;
@@ -91,14 +124,21 @@ public class HeaderDecoder {
             case 0 -> Emphasis.NONE;
             case 1 -> Emphasis.MICROSECONDS_50_15; 
             case 3 -> Emphasis.CCITT_J_17;
-            default -> throw new StreamCorruptedException("MP3 Header Invalid Emphasis Index " + emphasisNumber + ". At Hex " + headerPosition);
+            default -> throw invalid("Emphasis Index " + emphasisNumber, position);
         };
-        if (bitrate == -1) throw new StreamCorruptedException("MP3 Header Invalid Bitrate, had an index of 15. At Hex " + headerPosition);
-        if (frequency == -1) throw new StreamCorruptedException("MP3 Header Invalid Sampling Frequency, had an index of 15. At Hex " + headerPosition);
+        if (bitrate == -1) throw invalid("Bitrate, had an index of 15", position);
+        if (frequency == -1) throw invalid("Sampling Frequency, had an index of 15", position);
         return new MP3Header(version, layer, errorProtection, bitrate, frequency, 
         padded, mode, modeExtensionNumber, intensityStereo, msStereo, copyrighted, original, emphasis);
     }
 
+    /**
+     * The message only gets put together when a header is actually broken.
+     */
+    private StreamCorruptedException invalid(String what, long position) {
+        return new StreamCorruptedException("MP3 Header Invalid " + what + ". At Hex " + Long.toHexString(position));
+    }
+
     private int versionToIndex(MPEGVersion version, boolean twoSame) {
         if (!twoSame) {
             return switch(version) {
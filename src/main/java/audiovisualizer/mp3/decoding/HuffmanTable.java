@@ -0,0 +1,84 @@
+package audiovisualizer.mp3.decoding;
+
+/**
+ * One of the Layer III Huffman code tables turned into lookup tables, so a code is decoded with one or two peeks instead of
+ * walking a tree a bit at a time. The first level is indexed by the next 8 bits of the stream, codes longer than that point
+ * to a second level table indexed by the bits after those. <p>
+ * {@link} https://www.iso.org/standard/22412.html Table B.7
+ */
+class HuffmanTable {
+
+    private static final int primaryBits = 8;
+    private static final int link = 0x80000000;
+
+    /**Leaves are length << 16 | value, links are link | bits << 24 | offset of the second level table*/
+    private final int[] lookup;
+    private final int firstBits;
+
+    /**
+     * @param codes code of each value, values go x * xlen + y
+     * @param lengths length of each code in bits
+     * @param xlen number of different x and y values, the decoded value is x << 4 | y. 16 for the count1 tables gives back the index.
+     */
+    HuffmanTable(int[] codes, int[] lengths, int xlen) {
+        int maxLength = 0;
+        for (int length : lengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        firstBits = Math.min(primaryBits, maxLength);
+        // Work out how big each second level table has to be, they're keyed on the first bits of the long codes
+        int[] subBits = new int[1 << firstBits];
+        for (int i = 0; i < codes.length; i++) {
+            if (lengths[i] > firstBits) {
+                int prefix = codes[i] >>> (lengths[i] - firstBits);
+                subBits[prefix] = Math.max(subBits[prefix], lengths[i] - firstBits);
+            }
+        }
+        int size = 1 << firstBits;
+        int[] offsets = new int[subBits.length];
+        for (int prefix = 0; prefix < subBits.length; prefix++) {
+            if (subBits[prefix] > 0) {
+                offsets[prefix] = size;
+                size += 1 << subBits[prefix];
+            }
+        }
+        lookup = new int[size];
+        for (int prefix = 0; prefix < subBits.length; prefix++) {
+            if (subBits[prefix] > 0) lookup[prefix] = link | subBits[prefix] << 24 | offsets[prefix];
+        }
+        for (int i = 0; i < codes.length; i++) {
+            int length = lengths[i];
+            int leaf = length << 16 | (i / xlen) << 4 | (i % xlen);
+            if (length <= firstBits) {
+                int start = codes[i] << (firstBits - length);
+                for (int j = 0; j < 1 << (firstBits - length); j++) {
+                    lookup[start + j] = leaf;
+                }
+            } else {
+                int prefix = codes[i] >>> (length - firstBits);
+                int rest = length - firstBits;
+                int start = offsets[prefix] + ((codes[i] & ((1 << rest) - 1)) << (subBits[prefix] - rest));
+                for (int j = 0; j < 1 << (subBits[prefix] - rest); j++) {
+                    lookup[start + j] = leaf;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one code.
+     * @return x << 4 | y
+     */
+    int decode(BitReader stream) {
+        int entry = lookup[stream.peekBits(firstBits)];
+        if (entry >= 0) {
+            stream.skipBits(entry >>> 16);
+            return entry & 0xFF;
+        }
+        stream.skipBits(firstBits);
+        entry = lookup[(entry & 0xFFFFFF) + stream.peekBits((entry >>> 24) & 0x7F)];
+        stream.skipBits((entry >>> 16) - firstBits);
+        return entry & 0xFF;
+    }
+
+}
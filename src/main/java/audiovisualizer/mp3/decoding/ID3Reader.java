@@ -0,0 +1,274 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import audiovisualizer.mp3.ID3Tag;
+import audiovisualizer.mp3.ID3Tag.Frame;
+import audiovisualizer.mp3.ID3Tag.Picture;
+
+/**
+ * Reads the ID3v2 tags at the start of an MP3. Indexing only reads the 10 byte header of the tag and of each frame,
+ * jumping over the contents, so it reads a few hundred bytes no matter how big the pictures in the tag are.
+ * The contents of a frame only get read when its text or picture is asked for. <p>
+ * Sizes in the tag header, and in frame headers of ID3v2.4, are synchsafe integers that only use the low 7 bits of each byte
+ * so they can't look like a sync word. <p>
+ * ID3v2.2 tags and ID3v2.3 tags that are unsynchronised as a whole get skipped without indexing their frames,
+ * they're old and rare and their frame headers can't be found without reading the whole tag. <p>
+ * {@link} https://id3.org/id3v2.4.0-structure
+ * {@link} https://id3.org/id3v2.4.0-frames
+ * {@link} https://id3.org/id3v2.3.0
+ */
+public class ID3Reader {
+
+    private static final int id3 = 'I' << 16 | 'D' << 8 | '3';
+    private static final int headerLength = 10;
+
+    private final ByteBuffer header = ByteBuffer.allocate(headerLength);
+
+    /**
+     * Indexes the frames of the tags at the start of a file.
+     * @return the tag, with no frames and a length of 0 if there isn't one
+     */
+    public ID3Tag read(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(file, channel);
+        } catch (ClosedByInterruptException e) {
+            return new ID3Tag(file, 0, 0, List.of()); // Cancelled, whoever interrupted doesn't want the tag
+        } catch (IOException e) {
+            System.out.println("ID3 reading error with file " + file.getAbsolutePath());
+            e.printStackTrace();
+            return new ID3Tag(file, 0, 0, List.of());
+        }
+    }
+
+    private ID3Tag read(File file, FileChannel channel) throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        int majorVersion = 0;
+        long position = 0;
+        // Tags can be stacked one after another
+        while (position + headerLength <= channel.size() && readHeader(channel, position) && (header.getInt(0) >>> 8) == id3) {
+            int version = header.get(3);
+            int flags = header.get(5) & 0xFF;
+            int size = synchsafe(header.getInt(6));
+            if (version < 2 || version > 4 || size < 0) break;
+            if (majorVersion == 0) majorVersion = version;
+            boolean unsynchronised = (flags & 0x80) != 0;
+            boolean extendedHeader = (flags & 0x40) != 0;
+            boolean footer = version == 4 && (flags & 0x10) != 0;
+            long framesEnd = Math.min(position + headerLength + size, channel.size());
+            if (version == 4 || (version == 3 && !unsynchronised)) {
+                long framesStart = position + headerLength;
+                if (extendedHeader && readHeader(channel, framesStart)) {
+                    // ID3v2.3 doesn't count the size itself, ID3v2.4 does and makes it synchsafe
+                    framesStart += Math.max(0, version == 3 ? 4 + header.getInt(0) : synchsafe(header.getInt(0)));
+                }
+                readFrames(channel, version, unsynchronised, framesStart, framesEnd, frames);
+            }
+            position = framesEnd + (footer ? headerLength : 0);
+        }
+        return new ID3Tag(file, majorVersion, Math.min(position, channel.size()), List.copyOf(frames));
+    }
+
+    /**
+     * Walks the frame headers of one tag, stopping at the padding at the end.
+     */
+    private void readFrames(FileChannel channel, int version, boolean unsynchronised, long position, long end, List<Frame> frames) throws IOException {
+        while (position + headerLength <= end && readHeader(channel, position)) {
+            byte[] idBytes = new byte[4];
+            header.get(0, idBytes);
+            if (!isFrameID(idBytes)) break; // Padding or junk
+            int size = version == 4 ? synchsafe(header.getInt(4)) : header.getInt(4);
+            int flags = header.get(9) & 0xFF;
+            long contents = position + headerLength;
+            if (size < 0 || contents + size > end) break;
+            // Some flags put extra bytes in front of the contents
+            int extra;
+            boolean unreadable;
+            boolean frameUnsynchronised = unsynchronised;
+            if (version == 4) {
+                extra = ((flags & 0x40) != 0 ? 1 : 0) + ((flags & 0x01) != 0 ? 4 : 0); // Group and data length
+                unreadable = (flags & 0x0C) != 0; // Compressed or encrypted
+                frameUnsynchronised |= (flags & 0x02) != 0;
+            } else {
+                extra = ((flags & 0x80) != 0 ? 4 : 0) + ((flags & 0x40) != 0 ? 1 : 0) + ((flags & 0x20) != 0 ? 1 : 0); // Length, encryption method and group
+                unreadable = (flags & 0xC0) != 0;
+            }
+            if (extra <= size) {
+                frames.add(new Frame(new String(idBytes, StandardCharsets.ISO_8859_1), contents + extra, size - extra, frameUnsynchronised, unreadable));
+            }
+            position = contents + size;
+        }
+    }
+
+    /**
+     * Reads the contents of a frame, with the unsynchronisation taken back out.
+     * @return the contents, or null if they're compressed or encrypted
+     */
+    public byte[] contents(ID3Tag tag, Frame frame) throws IOException {
+        if (frame.unreadable()) return null;
+        byte[] contents = new byte[frame.size()];
+        try (FileChannel channel = FileChannel.open(tag.file().toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, frame.offset() + buffer.position()) == -1) throw new EOFException("ID3 frame " + frame.id() + " is cut off.");
+            }
+        }
+        return frame.unsynchronised() ? resynchronise(contents) : contents;
+    }
+
+    /**
+     * Reads a text frame like TIT2 for the title or TPE1 for the artist. Frames with more than one value have them split by '/'.
+     * @return the text, or null if the tag doesn't have the frame
+     */
+    public String text(ID3Tag tag, String id) {
+        Frame frame = tag.frame(id);
+        if (frame == null || !id.startsWith("T")) return null;
+        try {
+            byte[] contents = contents(tag, frame);
+            if (contents == null || contents.length == 0) return null;
+            String text = new String(contents, 1, contents.length - 1, charset(contents[0]));
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) == '\0') end--;
+            return text.substring(0, end).replace('\0', '/');
+        } catch (ClosedByInterruptException e) {
+            return null;
+        } catch (IOException e) {
+            System.out.println("ID3 reading error with file " + tag.file().getAbsolutePath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the front cover, or the first picture if there isn't one marked as the front cover.
+     * @return the picture, or null if the tag doesn't have one
+     */
+    public Picture picture(ID3Tag tag) {
+        Picture first = null;
+        for (Frame frame : tag.frames()) {
+            if (!frame.id().equals("APIC")) continue;
+            try {
+                Picture picture = readPicture(contents(tag, frame));
+                if (picture != null && picture.pictureType() == 3) return picture;
+                if (first == null) first = picture;
+            } catch (ClosedByInterruptException e) {
+                return null;
+            } catch (IOException e) {
+                System.out.println("ID3 reading error with file " + tag.file().getAbsolutePath());
+                e.printStackTrace();
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Text encoding, then the MIME type ending in a 0, the picture type, the description ending in a 0 of the text encoding, then the picture.
+     */
+    private Picture readPicture(byte[] contents) {
+        if (contents == null || contents.length < 2) return null;
+        int encoding = contents[0];
+        int mimeEnd = terminator(contents, 1, false);
+        if (mimeEnd + 1 >= contents.length) return null;
+        String mimeType = new String(contents, 1, mimeEnd - 1, StandardCharsets.ISO_8859_1);
+        int pictureType = contents[mimeEnd + 1] & 0xFF;
+        int descriptionStart = mimeEnd + 2;
+        boolean wide = encoding == 1 || encoding == 2;
+        int descriptionEnd = terminator(contents, descriptionStart, wide);
+        String description = new String(contents, descriptionStart, descriptionEnd - descriptionStart, charset((byte) encoding));
+        int dataStart = Math.min(descriptionEnd + (wide ? 2 : 1), contents.length);
+        return new Picture(mimeType, pictureType, description, Arrays.copyOfRange(contents, dataStart, contents.length));
+    }
+
+    /**
+     * @param wide whether the text is UTF-16, where the 0 is 2 bytes and lined up with the characters
+     * @return index of the 0 that ends a string, or the end of the array if there isn't one
+     */
+    private int terminator(byte[] contents, int start, boolean wide) {
+        if (!wide) {
+            for (int i = start; i < contents.length; i++) {
+                if (contents[i] == 0) return i;
+            }
+        } else {
+            for (int i = start; i + 1 < contents.length; i += 2) {
+                if (contents[i] == 0 && contents[i + 1] == 0) return i;
+            }
+        }
+        return contents.length;
+    }
+
+    private Charset charset(byte encoding) {
+        return switch(encoding) {
+            case 1 -> StandardCharsets.UTF_16; // With a byte order mark
+            case 2 -> StandardCharsets.UTF_16BE;
+            case 3 -> StandardCharsets.UTF_8;
+            default -> StandardCharsets.ISO_8859_1;
+        };
+    }
+
+    /**
+     * Unsynchronisation puts a 0 after every 0xFF so there aren't any false sync words, this takes them back out.
+     */
+    private byte[] resynchronise(byte[] contents) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length);
+        for (int i = 0; i < contents.length; i++) {
+            out.write(contents[i]);
+            if ((contents[i] & 0xFF) == 0xFF && i + 1 < contents.length && contents[i + 1] == 0) i++;
+        }
+        return out.toByteArray();
+    }
+
+    private boolean isFrameID(byte[] id) {
+        for (byte b : id) {
+            if (!(b >= 'A' && b <= 'Z') && !(b >= '0' && b <= '9')) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads 10 bytes at a position into the header buffer.
+     * @return false if the file ends first
+     */
+    private boolean readHeader(FileChannel channel, long position) throws IOException {
+        header.clear();
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) == -1) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the value of a synchsafe integer, or -1 if it isn't one because a byte has its top bit set
+     */
+    private static int synchsafe(int value) {
+        if ((value & 0x80808080) != 0) return -1;
+        return (value & 0x7F) | (value >> 1 & 0x3F80) | (value >> 2 & 0x1FC000) | (value >> 3 & 0xFE00000);
+    }
+
+    /**
+     * Skips any ID3v2 tags at the start of the stream, so the next byte is the first frame.
+     */
+    static void skip(BitReader stream) {
+        while (stream.peekBits(24) == id3) {
+            stream.skip(5); // ID3 and the version bytes
+            boolean footer = (stream.read() & 0b00010000) != 0;
+            int size = 0;
+            for (int i = 0; i < 4; i++) {
+                size = size << 7 | (stream.read() & 0x7F);
+            }
+            stream.skip(footer ? size + 10 : size);
+        }
+    }
+
+}
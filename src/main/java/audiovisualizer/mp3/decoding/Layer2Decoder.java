@@ -0,0 +1,224 @@
+package audiovisualizer.mp3.decoding;
+
+import audiovisualizer.mp3.MP3Header;
+import audiovisualizer.mp3.MP3Header.MPEGVersion;
+import audiovisualizer.mp3.MP3Header.Mode;
+
+/**
+ * Decodes the audio data of Layer II frames into subband samples for the synthesis filterbank.
+ * Which quantizations a subband can use depends on the bitrate and sample rate, so there's an allocation table for each combination.
+ * The 3, 5 and 9 level quantizations pack 3 samples into one code, those get unpacked with lookup tables made ahead of time. <p>
+ * {@link} https://www.iso.org/standard/22412.html Section 2.4.1.6, 2.4.2.6, 2.4.3.3 and Tables B.2a to B.2d, B.4
+ * {@link} https://www.iso.org/standard/26797.html Table B.1
+ */
+public class Layer2Decoder {
+
+    /*
+     * Number of quantization levels for each allocation value, 0 is no allocation.
+     * Each allocation table picks one of these for each subband along with how many bits the allocation takes.
+     */
+    private static final int[] highLevels = {0, 3, 7, 15, 31, 63, 127, 255, 511, 1023, 2047, 4095, 8191, 16383, 32767, 65535};
+    private static final int[] midLevels = {0, 3, 5, 7, 9, 15, 31, 63, 127, 255, 511, 1023, 2047, 4095, 8191, 65535};
+    private static final int[] lowLevels = {0, 3, 5, 7, 9, 15, 31, 65535};
+    private static final int[] topLevels = {0, 3, 5, 65535};
+    private static final int[] lowRateLevels = {0, 3, 5, 9, 15, 31, 63, 127, 255, 511, 1023, 2047, 4095, 8191, 16383, 32767};
+    private static final int[] lsfLevels = {0, 3, 5, 7, 9, 15, 31, 63, 127, 255, 511, 1023, 2047, 4095, 8191, 16383};
+
+    /**Allocation tables B.2a to B.2d and the lower sampling frequency table, as the levels and allocation bits of each subband*/
+    private static final AllocationTable[] allocationTables = {
+        new AllocationTable(27, new int[][] {highLevels, midLevels, lowLevels, topLevels}, new int[] {3, 8, 12, 4}, new int[] {4, 4, 3, 2}),
+        new AllocationTable(30, new int[][] {highLevels, midLevels, lowLevels, topLevels}, new int[] {3, 8, 12, 7}, new int[] {4, 4, 3, 2}),
+        new AllocationTable(8, new int[][] {lowRateLevels, lowRateLevels}, new int[] {2, 6}, new int[] {4, 3}),
+        new AllocationTable(12, new int[][] {lowRateLevels, lowRateLevels}, new int[] {2, 10}, new int[] {4, 3}),
+        new AllocationTable(30, new int[][] {lsfLevels, lowRateLevels, lowRateLevels}, new int[] {4, 7, 19}, new int[] {4, 3, 2})
+    };
+
+    /**Scalefactors from Table B.1, 2^(1 - i / 3). 63 isn't allowed so it's left as silence*/
+    static final double[] scalefactors = new double[64];
+    /**Unpacked samples of every grouped code for 3, 5 and 9 levels, code * 3 + sample*/
+    private static final double[][] groupedSamples = new double[10][];
+
+    static {
+        for (int i = 0; i < 63; i++) {
+            scalefactors[i] = Math.pow(2, 1 - i / 3.0);
+        }
+        for (int levels : new int[] {3, 5, 9}) {
+            int bits = groupedBits(levels);
+            double[] samples = new double[(1 << bits) * 3];
+            for (int code = 0; code < levels * levels * levels; code++) { // Codes past levels^3 aren't allowed and stay 0
+                int c = code;
+                for (int s = 0; s < 3; s++) {
+                    samples[code * 3 + s] = dequantize(c % levels, levels);
+                    c /= levels;
+                }
+            }
+            groupedSamples[levels] = samples;
+        }
+    }
+
+    /**
+     * Which quantization each subband can use, split up into runs of subbands that share the same choices.
+     */
+    private record AllocationTable(int subbandLimit, int[][] levels, int[] runLengths, int[] allocationBits) {
+
+        int[] levelsOf(int subband) {
+            for (int run = 0; run < runLengths.length; run++) {
+                if (subband < runLengths[run]) return levels[run];
+                subband -= runLengths[run];
+            }
+            throw new IllegalArgumentException("Subband " + subband + " is past the allocation table.");
+        }
+
+        int bitsOf(int subband) {
+            for (int run = 0; run < runLengths.length; run++) {
+                if (subband < runLengths[run]) return allocationBits[run];
+                subband -= runLengths[run];
+            }
+            throw new IllegalArgumentException("Subband " + subband + " is past the allocation table.");
+        }
+    }
+
+    private final int[][] allocation = new int[2][32]; // Channel, Subband, as a number of levels
+    private final int[][][] scaleIndex = new int[2][32][3]; // Channel, Subband, Part of the frame
+    private final int[][] scfsi = new int[2][32];
+    private final double[] triple = new double[3];
+    /**Bits of bit allocation and scfsi in the last frame, which is what its CRC covers*/
+    private int protectedBits = 0;
+
+    /**
+     * Decodes the rest of a frame after the header and CRC. Ancillary data at the end of the frame isn't read.
+     * @return subband samples as channel, time slot and subband, 36 time slots
+     */
+    public double[][][] decode(MP3Header header, BitReader stream) {
+        int channels = header.mode() == Mode.SINGLE_CHANNEL ? 1 : 2;
+        AllocationTable table = allocationTable(header, channels);
+        int limit = table.subbandLimit();
+        int bound = header.mode() == Mode.JOINT_STEREO ? Math.min((header.modeExtensionNumber() + 1) * 4, limit) : limit;
+        double[][][] subbands = new double[channels][36][32];
+        protectedBits = 0;
+        if (stream.remaining() < header.frameLength() - 4 - (header.errorProtection() ? 2 : 0)) return subbands; // Cut off at the end of the file
+        long start = stream.bitPosition();
+        for (int sb = 0; sb < limit; sb++) {
+            int[] levels = table.levelsOf(sb);
+            int bits = table.bitsOf(sb);
+            if (sb < bound) {
+                for (int ch = 0; ch < channels; ch++) {
+                    allocation[ch][sb] = levels[stream.readNBits(bits)];
+                }
+            } else {
+                allocation[0][sb] = levels[stream.readNBits(bits)];
+                allocation[1][sb] = allocation[0][sb];
+            }
+        }
+        for (int sb = 0; sb < limit; sb++) {
+            for (int ch = 0; ch < channels; ch++) {
+                if (allocation[ch][sb] != 0) scfsi[ch][sb] = stream.readNBits(2);
+            }
+        }
+        protectedBits = (int) (stream.bitPosition() - start);
+        for (int sb = 0; sb < limit; sb++) {
+            for (int ch = 0; ch < channels; ch++) {
+                if (allocation[ch][sb] != 0) readScalefactors(stream, scfsi[ch][sb], scaleIndex[ch][sb]);
+            }
+        }
+        for (int gr = 0; gr < 12; gr++) {
+            int part = gr >> 2; // Each scalefactor covers 4 granules of 3 samples
+            int slot = gr * 3;
+            for (int sb = 0; sb < limit; sb++) {
+                int chans = sb < bound ? channels : 1;
+                for (int ch = 0; ch < chans; ch++) {
+                    int levels = allocation[ch][sb];
+                    if (levels == 0) continue;
+                    readTriple(stream, levels);
+                    for (int c = ch; c < (sb < bound ? ch + 1 : channels); c++) { // Past the bound both channels share the samples
+                        double scale = scalefactors[scaleIndex[c][sb][part]];
+                        for (int s = 0; s < 3; s++) {
+                            subbands[c][slot + s][sb] = triple[s] * scale;
+                        }
+                    }
+                }
+            }
+        }
+        return subbands;
+    }
+
+    /**
+     * @return how many bits after the CRC the last frame's CRC covers
+     */
+    int protectedBits() {
+        return protectedBits;
+    }
+
+    /**
+     * scfsi says which of the 3 parts of the frame share a scalefactor.
+     */
+    private void readScalefactors(BitReader stream, int scfsi, int[] index) {
+        switch(scfsi) {
+            case 0 -> {
+                index[0] = stream.readNBits(6);
+                index[1] = stream.readNBits(6);
+                index[2] = stream.readNBits(6);
+            }
+            case 1 -> {
+                index[0] = index[1] = stream.readNBits(6);
+                index[2] = stream.readNBits(6);
+            }
+            case 2 -> index[0] = index[1] = index[2] = stream.readNBits(6);
+            default -> {
+                index[0] = stream.readNBits(6);
+                index[1] = index[2] = stream.readNBits(6);
+            }
+        }
+    }
+
+    /**
+     * Reads 3 consecutive samples of a subband into {@link #triple}, either as one grouped code or 3 separate codes.
+     */
+    private void readTriple(BitReader stream, int levels) {
+        if (levels == 3 || levels == 5 || levels == 9) {
+            double[] samples = groupedSamples[levels];
+            int code = stream.readNBits(groupedBits(levels)) * 3;
+            triple[0] = samples[code];
+            triple[1] = samples[code + 1];
+            triple[2] = samples[code + 2];
+            return;
+        }
+        int bits = Integer.numberOfTrailingZeros(levels + 1);
+        double step = 2.0 / levels;
+        double offset = (levels - 1) / (double) levels;
+        for (int s = 0; s < 3; s++) {
+            triple[s] = stream.readNBits(bits) * step - offset;
+        }
+    }
+
+    /**
+     * Table B.4 picks the table from the bitrate per channel and the sample rate, the lower sampling frequencies only have one.
+     */
+    private AllocationTable allocationTable(MP3Header header, int channels) {
+        if (header.version() != MPEGVersion.MPEG_1) return allocationTables[4];
+        double bitratePerChannel = header.bitrate() / channels;
+        int sampleRate = header.sampleRate();
+        if (header.bitrate() > 0 && bitratePerChannel <= 48) return allocationTables[sampleRate == 32000 ? 3 : 2];
+        if (header.bitrate() > 0 && bitratePerChannel <= 80) return allocationTables[0];
+        return allocationTables[sampleRate == 48000 ? 0 : 1]; // Free format goes here too
+    }
+
+    /**
+     * Turns a sample code into a fraction between -1 and 1, the C * (s + D) of Table B.4 with the codes spread evenly around 0.
+     */
+    private static double dequantize(int code, int levels) {
+        return (2.0 * code - (levels - 1)) / levels;
+    }
+
+    /**
+     * Bits in the code that holds 3 grouped samples.
+     */
+    private static int groupedBits(int levels) {
+        return switch(levels) {
+            case 3 -> 5;
+            case 5 -> 7;
+            default -> 10;
+        };
+    }
+
+}
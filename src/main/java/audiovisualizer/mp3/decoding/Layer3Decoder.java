@@ -0,0 +1,714 @@
+package audiovisualizer.mp3.decoding;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import audiovisualizer.mp3.MP3Header;
+import audiovisualizer.mp3.MP3Header.MPEGVersion;
+import audiovisualizer.mp3.MP3Header.Mode;
+
+/**
+ * Decodes the audio data of Layer III frames into subband samples, everything up to but not including the synthesis filterbank.
+ * It remembers the bit reservoir and the second half of the last IMDCT between frames, so frames have to be given to it in order,
+ * and {@link #reset()} has to be called after jumping somewhere else. <p>
+ * {@link} https://www.iso.org/standard/22412.html Section 2.4.1.7, 2.4.2.7 and 2.4.3.4
+ * {@link} https://www.iso.org/standard/26797.html Section 2.4.3.2 (lower sampling frequencies)
+ */
+public class Layer3Decoder {
+
+    /**Zeros after the main data so a corrupt granule can't read off the end of the reservoir*/
+    private static final int padding = 64;
+    private static final int maxGainExponent = 64;
+    /**|x|^(4/3) for every value the Huffman tables can make*/
+    private static final double[] pow43 = new double[8207];
+    /**2^(e/4) for e from -512 up to maxGainExponent*/
+    private static final double[] gainPow = new double[512 + maxGainExponent];
+    /**Intensity stereo left and right ratios for MPEG 1 positions 0 to 6, tan(pos * pi / 12) split between the channels*/
+    private static final double[] panLeft = new double[7];
+    private static final double[] panRight = new double[7];
+    /**2cos(pi(2k + 1) / 4N), scaling the input of an N point DCT-IV turns it into a DCT-II, for the 18 and 6 point DCT-IVs*/
+    private static final double[] longScale = new double[18];
+    private static final double[] shortScale = new double[6];
+    /**2cos(pi(2k + 1) / 2N), splits the odd outputs of an N point DCT-II off into an N / 2 point DCT-II*/
+    private static final double[] longTwiddle = new double[9];
+    private static final double[] shortTwiddle = new double[3];
+    /**cos(pi(2k + 1)j / 18) for the 9 point DCT-II, only k below 4 since the rest mirror them*/
+    private static final double[][] cos9 = new double[9][4];
+    private static final double cos30 = Math.cos(Math.PI / 6);
+    /**Long windows for block types 0, 1 and 3, type 2 uses shortWindow*/
+    private static final double[][] longWindows = new double[4][36];
+    private static final double[] shortWindow = new double[12];
+
+    static {
+        for (int i = 0; i < pow43.length; i++) {
+            pow43[i] = Math.pow(i, 4.0 / 3.0);
+        }
+        for (int i = 0; i < gainPow.length; i++) {
+            gainPow[i] = Math.pow(2, (i - 512) / 4.0);
+        }
+        for (int i = 0; i < 7; i++) {
+            double ratio = Math.tan(i * Math.PI / 12);
+            panLeft[i] = ratio / (1 + ratio);
+            panRight[i] = 1 / (1 + ratio);
+        }
+        for (int k = 0; k < 18; k++) {
+            longScale[k] = 2 * Math.cos(Math.PI / 72 * (2 * k + 1));
+        }
+        for (int k = 0; k < 6; k++) {
+            shortScale[k] = 2 * Math.cos(Math.PI / 24 * (2 * k + 1));
+        }
+        for (int k = 0; k < 9; k++) {
+            longTwiddle[k] = 2 * Math.cos(Math.PI / 36 * (2 * k + 1));
+        }
+        for (int k = 0; k < 3; k++) {
+            shortTwiddle[k] = 2 * Math.cos(Math.PI / 12 * (2 * k + 1));
+        }
+        for (int j = 0; j < 9; j++) {
+            for (int k = 0; k < 4; k++) {
+                cos9[j][k] = Math.cos(Math.PI / 18 * (2 * k + 1) * j);
+            }
+        }
+        for (int i = 0; i < 36; i++) {
+            longWindows[0][i] = Math.sin(Math.PI / 36 * (i + 0.5));
+        }
+        for (int i = 0; i < 18; i++) { // Start and stop windows are half normal window, then a piece of short window
+            longWindows[1][i] = longWindows[0][i];
+            longWindows[3][i + 18] = longWindows[0][i + 18];
+        }
+        for (int i = 0; i < 6; i++) {
+            longWindows[1][i + 18] = 1;
+            longWindows[1][i + 24] = Math.sin(Math.PI / 12 * (i + 6 + 0.5));
+            longWindows[3][i + 6] = Math.sin(Math.PI / 12 * (i + 0.5));
+            longWindows[3][i + 12] = 1;
+        }
+        for (int i = 0; i < 12; i++) {
+            shortWindow[i] = Math.sin(Math.PI / 12 * (i + 0.5));
+        }
+    }
+
+    /**Side info of one channel in one granule*/
+    private static class Granule {
+        int part23Length;
+        int bigValues;
+        int globalGain;
+        int scalefacCompress;
+        int blockType;
+        boolean mixed;
+        int[] tableSelect = new int[3];
+        int[] subblockGain = new int[3];
+        int region0Count;
+        int region1Count;
+        boolean preflag;
+        boolean scalefacScale;
+        boolean count1Table;
+        /**Widths of the scalefactor bands the way they're laid out in the bitstream, see {@link Layer3Tables#bandWidths}*/
+        int[] widths;
+        /**Number of widths that belong to long bands, all of them if it isn't a short block*/
+        int longBands;
+        int[] scalefactors = new int[39];
+        /**Intensity stereo positions, -1 where the position is illegal*/
+        int[] isPositions = new int[39];
+
+        boolean shortBlock() {
+            return blockType == 2;
+        }
+    }
+
+    private final Granule[][] granules = {{new Granule(), new Granule()}, {new Granule(), new Granule()}};
+    private final int[] scfsi = new int[2];
+    private final byte[] reservoir = new byte[4096];
+    private int reservoirLength = 0;
+    private final int[] quantized = new int[576];
+    private final double[][] spectrum = new double[2][576];
+    /**Second halves of the last IMDCT of each subband, added onto the first half of the next one*/
+    private final double[][][] overlap = new double[2][32][18];
+    private final double[] imdctOut = new double[36];
+    private final double[] dctOut = new double[18];
+    // Halves of the DCT-IV's input and the DCT-IIs they go through
+    private final double[] dctSums = new double[9];
+    private final double[] dctDifferences = new double[9];
+    private final double[] dctEven = new double[9];
+    private final double[] dctOdd = new double[9];
+    private final double[] reorderBuffer = new double[576];
+
+    /**
+     * Decodes the rest of a frame after the header and CRC, leaving the stream at the end of the frame.
+     * @return subband samples as channel, time slot and subband, 18 time slots per granule
+     */
+    public double[][][] decode(MP3Header header, BitReader stream) {
+        boolean mpeg1 = header.version() == MPEGVersion.MPEG_1;
+        int channels = header.mode() == Mode.SINGLE_CHANNEL ? 1 : 2;
+        int granuleCount = mpeg1 ? 2 : 1;
+        int sampleRateIndex = Layer3Tables.sampleRateIndex(header);
+        double[][][] subbands = new double[channels][18 * granuleCount][32];
+        int sideInfoLength = sideInfoLength(header);
+        if (stream.remaining() < sideInfoLength) return subbands; // Cut off at the end of the file
+        int mainDataBegin = readSideInfo(stream, mpeg1, channels, sampleRateIndex);
+        if (header.frameLength() == 0) return subbands; // Free format, no way to know where the main data ends
+        int mainDataLength = Math.max(0, header.frameLength() - 4 - (header.errorProtection() ? 2 : 0) - sideInfoLength);
+        // Only the last 511 bytes can ever be pointed back to
+        int kept = Math.min(reservoirLength, 511);
+        System.arraycopy(reservoir, reservoirLength - kept, reservoir, 0, kept);
+        reservoirLength = kept + stream.readBytes(reservoir, kept, Math.min(mainDataLength, reservoir.length - padding - kept));
+        Arrays.fill(reservoir, reservoirLength, reservoirLength + padding, (byte) 0);
+        boolean missingData = mainDataBegin > kept; // Happens right after a seek, the data is in a frame that wasn't read
+        int start = kept - mainDataBegin;
+        BitReader mainData = missingData ? null : new BitReader(ByteBuffer.wrap(reservoir, start, reservoirLength + padding - start));
+        for (int gr = 0; gr < granuleCount; gr++) {
+            for (int ch = 0; ch < channels; ch++) {
+                Granule granule = granules[gr][ch];
+                if (missingData) {
+                    Arrays.fill(spectrum[ch], 0);
+                    continue;
+                }
+                long part2Start = mainData.bitPosition();
+                if (mpeg1) {
+                    readScalefactorsMPEG1(mainData, granule, gr == 1 ? scfsi[ch] : 0, granules[0][ch]);
+                } else {
+                    readScalefactorsMPEG2(mainData, granule, ch == 1 && header.intensityStereo());
+                }
+                // A corrupt length could point past the end of the reservoir
+                long part2End = Math.min(part2Start + granule.part23Length, (reservoirLength - start) * 8L);
+                readHuffman(mainData, granule, part2End);
+                requantize(granule, spectrum[ch], header.msStereo() && channels == 2);
+                mainData.bitPosition(part2End);
+            }
+            if (channels == 2 && !missingData) stereo(header, mpeg1, granules[gr][0], granules[gr][1]);
+            for (int ch = 0; ch < channels; ch++) {
+                Granule granule = granules[gr][ch];
+                if (granule.shortBlock()) reorder(granule, spectrum[ch]);
+                antialias(granule, spectrum[ch]);
+                hybridSynthesis(granule, spectrum[ch], overlap[ch], subbands[ch], gr * 18);
+            }
+        }
+        return subbands;
+    }
+
+    /**
+     * Bytes of side info after the header and CRC.
+     */
+    static int sideInfoLength(MP3Header header) {
+        boolean mono = header.mode() == Mode.SINGLE_CHANNEL;
+        if (header.version() == MPEGVersion.MPEG_1) return mono ? 17 : 32;
+        return mono ? 9 : 17;
+    }
+
+    /**
+     * Forgets the bit reservoir and overlap from earlier frames, for when the audio jumps somewhere else.
+     */
+    public void reset() {
+        reservoirLength = 0;
+        forgetOverlap();
+    }
+
+    /**
+     * Forgets the overlap from the last frame so a broken frame can't leak into the next one. The bit reservoir is kept.
+     */
+    void forgetOverlap() {
+        for (double[][] channel : overlap) {
+            for (double[] subband : channel) {
+                Arrays.fill(subband, 0);
+            }
+        }
+    }
+
+    /**
+     * @return main_data_begin, how many bytes back in the reservoir the main data starts
+     */
+    private int readSideInfo(BitReader stream, boolean mpeg1, int channels, int sampleRateIndex) {
+        int mainDataBegin = stream.readNBits(mpeg1 ? 9 : 8);
+        stream.readNBits(mpeg1 ? (channels == 1 ? 5 : 3) : (channels == 1 ? 1 : 2)); // Private bits
+        if (mpeg1) {
+            for (int ch = 0; ch < channels; ch++) {
+                scfsi[ch] = stream.readNBits(4);
+            }
+        }
+        for (int gr = 0; gr < (mpeg1 ? 2 : 1); gr++) {
+            for (int ch = 0; ch < channels; ch++) {
+                Granule granule = granules[gr][ch];
+                granule.part23Length = stream.readNBits(12);
+                granule.bigValues = Math.min(stream.readNBits(9), 288);
+                granule.globalGain = stream.readNBits(8);
+                granule.scalefacCompress = stream.readNBits(mpeg1 ? 4 : 9);
+                boolean windowSwitching = stream.readNBits(1) == 1;
+                if (windowSwitching) {
+                    granule.blockType = stream.readNBits(2);
+                    granule.mixed = stream.readNBits(1) == 1;
+                    granule.tableSelect[0] = stream.readNBits(5);
+                    granule.tableSelect[1] = stream.readNBits(5);
+                    granule.tableSelect[2] = 0;
+                    for (int w = 0; w < 3; w++) {
+                        granule.subblockGain[w] = stream.readNBits(3);
+                    }
+                    // Region 1 goes to the end of the big values when the block type is switched
+                    granule.region0Count = granule.blockType == 2 && !granule.mixed ? 8 : 7;
+                    granule.region1Count = 36;
+                } else {
+                    granule.blockType = 0;
+                    granule.mixed = false;
+                    for (int i = 0; i < 3; i++) {
+                        granule.tableSelect[i] = stream.readNBits(5);
+                    }
+                    Arrays.fill(granule.subblockGain, 0);
+                    granule.region0Count = stream.readNBits(4);
+                    granule.region1Count = stream.readNBits(3);
+                }
+                granule.preflag = mpeg1 && stream.readNBits(1) == 1;
+                granule.scalefacScale = stream.readNBits(1) == 1;
+                granule.count1Table = stream.readNBits(1) == 1;
+                granule.widths = Layer3Tables.bandWidths(sampleRateIndex, granule.shortBlock(), granule.mixed);
+                granule.longBands = !granule.shortBlock() ? granule.widths.length : granule.mixed ? (sampleRateIndex < 3 ? 8 : 6) : 0;
+            }
+        }
+        return mainDataBegin;
+    }
+
+    /**
+     * @param scfsi which groups of scalefactors get reused from the first granule, 0 for the first granule
+     */
+    private void readScalefactorsMPEG1(BitReader stream, Granule granule, int scfsi, Granule first) {
+        int slen1 = Layer3Tables.slen1[granule.scalefacCompress];
+        int slen2 = Layer3Tables.slen2[granule.scalefacCompress];
+        int row = granule.shortBlock() ? (granule.mixed ? 1 : 2) : 0;
+        if (row != 0) scfsi = 0; // Short scalefactors are always sent
+        readScalefactors(stream, granule, row, 0, new int[] {slen1, slen1, slen2, slen2}, scfsi, first, -1);
+    }
+
+    /**
+     * The lower sampling frequencies pack the bit lengths of the scalefactors into scalefac_compress,
+     * and the right channel of intensity stereo uses it for the intensity positions instead. <p>
+     * {@link} https://www.iso.org/standard/26797.html Section 2.4.3.2
+     */
+    private void readScalefactorsMPEG2(BitReader stream, Granule granule, boolean intensityChannel) {
+        int[] slen = new int[4];
+        int table;
+        int compress = granule.scalefacCompress;
+        if (intensityChannel) {
+            compress >>= 1;
+            if (compress < 180) {
+                slen[0] = compress / 36;
+                slen[1] = (compress % 36) / 6;
+                slen[2] = (compress % 36) % 6;
+                table = 3;
+            } else if (compress < 244) {
+                compress -= 180;
+                slen[0] = (compress % 64) >> 4;
+                slen[1] = (compress % 16) >> 2;
+                slen[2] = compress % 4;
+                table = 4;
+            } else {
+                compress -= 244;
+                slen[0] = compress / 3;
+                slen[1] = compress % 3;
+                table = 5;
+            }
+            granule.preflag = false;
+        } else if (compress < 400) {
+            slen[0] = (compress >> 4) / 5;
+            slen[1] = (compress >> 4) % 5;
+            slen[2] = (compress & 15) >> 2;
+            slen[3] = compress & 3;
+            table = 0;
+            granule.preflag = false;
+        } else if (compress < 500) {
+            compress -= 400;
+            slen[0] = (compress >> 2) / 5;
+            slen[1] = (compress >> 2) % 5;
+            slen[2] = compress & 3;
+            table = 1;
+            granule.preflag = false;
+        } else {
+            compress -= 500;
+            slen[0] = compress / 3;
+            slen[1] = compress % 3;
+            table = 2;
+            granule.preflag = true;
+        }
+        int row = granule.shortBlock() ? (granule.mixed ? 1 : 2) : 0;
+        readScalefactors(stream, granule, row, 4 + table * 4, slen, 0, null, intensityChannel ? 0 : -1);
+    }
+
+    /**
+     * Reads the scalefactors in 4 parts that each have their own bit length.
+     * @param offset where the part sizes start in {@link Layer3Tables#scalefactorPartitions}
+     * @param illegalMarker 0 to mark the largest value of each part as an illegal intensity position, -1 to not
+     */
+    private void readScalefactors(BitReader stream, Granule granule, int row, int offset, int[] slen, int scfsi, Granule first, int illegalMarker) {
+        int[] counts = Layer3Tables.scalefactorPartitions[row];
+        int band = 0;
+        for (int part = 0; part < 4; part++) {
+            int count = counts[offset + part];
+            boolean reuse = (scfsi & (8 >> part)) != 0;
+            int illegal = illegalMarker == 0 && slen[part] > 0 ? (1 << slen[part]) - 1 : -1;
+            for (int i = 0; i < count; i++, band++) {
+                int scalefactor = reuse ? first.scalefactors[band] : stream.readNBits(slen[part]);
+                granule.scalefactors[band] = scalefactor;
+                granule.isPositions[band] = scalefactor == illegal ? -1 : scalefactor;
+            }
+        }
+        // The last band of each window doesn't get a scalefactor
+        Arrays.fill(granule.scalefactors, band, 39, 0);
+        Arrays.fill(granule.isPositions, band, 39, 0);
+    }
+
+    /**
+     * Huffman decodes the big values and count1 regions into {@link #quantized}, the rest is zeroed.
+     * @param end bit position where this granule's data ends
+     */
+    private void readHuffman(BitReader stream, Granule granule, long end) {
+        int[] widths = granule.widths;
+        int region1Start = bandEdge(widths, granule.region0Count + 1);
+        int region2Start = bandEdge(widths, granule.region0Count + granule.region1Count + 2);
+        int bigValuesEnd = granule.bigValues * 2;
+        int i = 0;
+        for (int region = 0; region < 3; region++) {
+            int limit = Math.min(bigValuesEnd, region == 0 ? region1Start : region == 1 ? region2Start : 576);
+            int tableSelect = granule.tableSelect[region];
+            HuffmanTable table = Layer3Tables.bigValueTables[tableSelect];
+            int linbits = Layer3Tables.linbits[tableSelect];
+            if (table == null) {
+                while (i < limit) quantized[i++] = 0;
+                continue;
+            }
+            while (i < limit) {
+                if (stream.bitPosition() > end) { // Corrupt, don't read into the next granule's data
+                    Arrays.fill(quantized, i, 576, 0);
+                    return;
+                }
+                int value = table.decode(stream);
+                quantized[i++] = readBigValue(stream, value >> 4, linbits);
+                quantized[i++] = readBigValue(stream, value & 15, linbits);
+            }
+        }
+        while (i + 4 <= 576 && stream.bitPosition() < end) {
+            int value = granule.count1Table ? 15 - stream.readNBits(4) : Layer3Tables.count1A.decode(stream);
+            for (int bit = 3; bit >= 0; bit--) {
+                int v = (value >> bit) & 1;
+                quantized[i++] = v != 0 && stream.readNBits(1) == 1 ? -v : v;
+            }
+        }
+        if (stream.bitPosition() > end && i >= 4) i -= 4; // The last quad ran past the end so it isn't real
+        Arrays.fill(quantized, i, 576, 0);
+    }
+
+    private int readBigValue(BitReader stream, int value, int linbits) {
+        if (linbits > 0 && value == 15) value += stream.readNBits(linbits);
+        return value != 0 && stream.readNBits(1) == 1 ? -value : value;
+    }
+
+    /**
+     * @return frequency line where a band starts
+     */
+    private int bandEdge(int[] widths, int band) {
+        int edge = 0;
+        for (int i = 0; i < Math.min(band, widths.length); i++) {
+            edge += widths[i];
+        }
+        return Math.min(edge, 576);
+    }
+
+    /**
+     * Turns {@link #quantized} into the spectrum, xr = sign * |is|^(4/3) * 2^(exponent / 4).
+     * @param midSide mid side stereo is done as (M + S) / sqrt(2), the 1 / sqrt(2) is taken out here as 2 less in the exponent
+     */
+    private void requantize(Granule granule, double[] xr, boolean midSide) {
+        int[] widths = granule.widths;
+        int scaleShift = granule.scalefacScale ? 4 : 2;
+        int line = 0;
+        for (int band = 0; band < widths.length; band++) {
+            int exponent = granule.globalGain - 210;
+            if (band < granule.longBands) {
+                exponent -= scaleShift * (granule.scalefactors[band] + (granule.preflag ? Layer3Tables.pretab[band] : 0));
+            } else {
+                exponent -= 8 * granule.subblockGain[(band - granule.longBands) % 3] + scaleShift * granule.scalefactors[band];
+            }
+            if (midSide) exponent -= 2;
+            double gain = gainPow[Math.max(0, Math.min(exponent, maxGainExponent - 1) + 512)];
+            for (int end = Math.min(line + widths[band], 576); line < end; line++) {
+                int value = quantized[line];
+                xr[line] = value == 0 ? 0 : value > 0 ? pow43[value] * gain : -pow43[-value] * gain;
+            }
+        }
+        Arrays.fill(xr, line, 576, 0);
+    }
+
+    /**
+     * Mid side and intensity stereo. Intensity stereo covers the bands above the highest band where the right channel has anything. <p>
+     * Short blocks find that band separately for each window. In a mixed block the windows only share one top band when the right channel's
+     * short bands are all zero, since then the zero part starts in the long bands, otherwise the long bands all stay below it and each window
+     * of the short bands has its own. <p>
+     * {@link} https://www.iso.org/standard/22412.html Section 2.4.3.4.9
+     */
+    private void stereo(MP3Header header, boolean mpeg1, Granule left, Granule right) {
+        double[] l = spectrum[0];
+        double[] r = spectrum[1];
+        if (!header.intensityStereo()) {
+            if (header.msStereo()) midSide(l, r, 0, 576);
+            return;
+        }
+        int[] widths = left.widths;
+        int longBands = left.longBands;
+        int windows = left.shortBlock() ? 3 : 1;
+        int[] topBand = {-1, -1, -1};
+        int topLongBand = -1;
+        boolean shortBandsZero = true;
+        for (int band = 0, line = 0; band < widths.length; line += widths[band], band++) {
+            for (int i = line; i < Math.min(line + widths[band], 576); i++) {
+                if (r[i] != 0) {
+                    if (band < longBands) {
+                        topLongBand = band;
+                    } else {
+                        topBand[window(left, band)] = band;
+                        shortBandsZero = false;
+                    }
+                    break;
+                }
+            }
+        }
+        for (int w = 0; w < 3; w++) {
+            topBand[w] = shortBandsZero ? topLongBand : Math.max(topBand[w], longBands - 1);
+        }
+        // The last band doesn't have a position of its own so it uses the one before it
+        for (int w = 0; w < windows; w++) {
+            int last = widths.length - windows + w;
+            int previous = last - windows;
+            right.isPositions[last] = topBand[w] >= previous ? (mpeg1 ? 3 : 0) : right.isPositions[previous];
+        }
+        int intensityScale = right.scalefacCompress & 1;
+        for (int band = 0, line = 0; band < widths.length; line += widths[band], band++) {
+            int position = right.isPositions[band];
+            int end = Math.min(line + widths[band], 576);
+            if (band > topBand[window(left, band)] && position >= 0 && position < (mpeg1 ? 7 : 64)) {
+                double kl, kr;
+                if (mpeg1) {
+                    kl = panLeft[position];
+                    kr = panRight[position];
+                } else {
+                    kl = 1;
+                    kr = Math.pow(2, -((position + 1) >> 1 << intensityScale) / 4.0);
+                    if ((position & 1) != 0) {
+                        kl = kr;
+                        kr = 1;
+                    }
+                }
+                if (header.msStereo()) { // Mid was scaled down for mid side, intensity bands don't get that
+                    kl *= Math.sqrt(2);
+                    kr *= Math.sqrt(2);
+                }
+                for (int i = line; i < end; i++) {
+                    r[i] = l[i] * kr;
+                    l[i] *= kl;
+                }
+            } else if (header.msStereo()) {
+                midSide(l, r, line, end);
+            }
+        }
+    }
+
+    /**
+     * @return which window of a short block a band is in, 0 for long bands
+     */
+    private int window(Granule granule, int band) {
+        return band < granule.longBands ? 0 : (band - granule.longBands) % 3;
+    }
+
+    /**
+     * Both channels were already scaled by 1 / sqrt(2) in {@link #requantize}.
+     */
+    private void midSide(double[] l, double[] r, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double mid = l[i];
+            double side = r[i];
+            l[i] = mid + side;
+            r[i] = mid - side;
+        }
+    }
+
+    /**
+     * Short bands come window after window, this interleaves the windows so each subband's 18 lines go
+     * frequency 0 of windows 0, 1, 2, then frequency 1 and so on.
+     */
+    private void reorder(Granule granule, double[] xr) {
+        int[] widths = granule.widths;
+        int line = 0;
+        for (int band = 0; band < granule.longBands; band++) {
+            line += widths[band];
+        }
+        for (int band = granule.longBands; band + 2 < widths.length && line < 576; band += 3) {
+            int width = widths[band];
+            int end = Math.min(line + width * 3, 576);
+            for (int i = line; i < end; i++) {
+                reorderBuffer[i - line] = xr[i];
+            }
+            for (int w = 0; w < 3; w++) {
+                for (int j = 0; j < width && line + 3 * j + w < end; j++) {
+                    xr[line + 3 * j + w] = reorderBuffer[w * width + j];
+                }
+            }
+            line = end;
+        }
+    }
+
+    /**
+     * Removes the aliasing the analysis filterbank leaves between neighbouring subbands, only for long blocks.
+     * Mixed blocks only do it between the 2 long subbands.
+     */
+    private void antialias(Granule granule, double[] xr) {
+        int boundaries = granule.shortBlock() ? (granule.mixed ? 1 : 0) : 31;
+        for (int sb = 1; sb <= boundaries; sb++) {
+            int edge = sb * 18;
+            for (int i = 0; i < 8; i++) {
+                double lower = xr[edge - 1 - i];
+                double upper = xr[edge + i];
+                xr[edge - 1 - i] = lower * Layer3Tables.antialiasCs[i] - upper * Layer3Tables.antialiasCa[i];
+                xr[edge + i] = upper * Layer3Tables.antialiasCs[i] + lower * Layer3Tables.antialiasCa[i];
+            }
+        }
+    }
+
+    /**
+     * IMDCT, windowing and overlap add for every subband, then frequency inversion of the odd subbands.
+     * @param out gets 18 time slots of subband samples starting at slot
+     */
+    private void hybridSynthesis(Granule granule, double[] xr, double[][] overlap, double[][] out, int slot) {
+        for (int sb = 0; sb < 32; sb++) {
+            int base = sb * 18;
+            boolean zero = true;
+            for (int i = base; i < base + 18; i++) {
+                if (xr[i] != 0) {
+                    zero = false;
+                    break;
+                }
+            }
+            double[] previous = overlap[sb];
+            if (zero) { // Very common for the upper subbands, only what's left over from the last granule comes out
+                for (int i = 0; i < 18; i++) {
+                    out[slot + i][sb] = previous[i];
+                    previous[i] = 0;
+                }
+            } else {
+                boolean longBlock = !granule.shortBlock() || (granule.mixed && sb < 2);
+                if (longBlock) {
+                    imdctLong(xr, base, longWindows[granule.shortBlock() ? 0 : granule.blockType]);
+                } else {
+                    imdctShort(xr, base);
+                }
+                for (int i = 0; i < 18; i++) {
+                    out[slot + i][sb] = imdctOut[i] + previous[i];
+                    previous[i] = imdctOut[i + 18];
+                }
+            }
+            if ((sb & 1) == 1) {
+                for (int i = 1; i < 18; i += 2) {
+                    out[slot + i][sb] = -out[slot + i][sb];
+                }
+            }
+        }
+    }
+
+    /**
+     * 36 point IMDCT done as an 18 point DCT-IV, the IMDCT's outputs are the DCT's folded out with some signs flipped.
+     */
+    private void imdctLong(double[] xr, int base, double[] window) {
+        dctIV(xr, base, 1, 18, dctOut);
+        for (int n = 0; n < 9; n++) {
+            imdctOut[n] = dctOut[n + 9] * window[n];
+        }
+        for (int n = 9; n < 27; n++) {
+            imdctOut[n] = -dctOut[26 - n] * window[n];
+        }
+        for (int n = 27; n < 36; n++) {
+            imdctOut[n] = -dctOut[n - 27] * window[n];
+        }
+    }
+
+    /**
+     * Three 12 point IMDCTs, one per window, overlapped inside the 36 samples the same way long blocks overlap each other.
+     */
+    private void imdctShort(double[] xr, int base) {
+        Arrays.fill(imdctOut, 0);
+        for (int w = 0; w < 3; w++) {
+            dctIV(xr, base + w, 3, 6, dctOut);
+            int start = 6 + 6 * w;
+            for (int n = 0; n < 3; n++) {
+                imdctOut[start + n] += dctOut[n + 3] * shortWindow[n];
+            }
+            for (int n = 3; n < 9; n++) {
+                imdctOut[start + n] -= dctOut[8 - n] * shortWindow[n];
+            }
+            for (int n = 9; n < 12; n++) {
+                imdctOut[start + n] -= dctOut[n - 9] * shortWindow[n];
+            }
+        }
+    }
+
+    /**
+     * Fast 18 or 6 point DCT-IV, X[m] = sum of x[k]cos(pi(2m + 1)(2k + 1) / 4N). <p>
+     * Scaling x[k] by 2cos(pi(2k + 1) / 4N) turns it into a DCT-II whose outputs are C[m] = X[m] + X[m - 1], so X comes back out by
+     * subtracting down the line. The DCT-II gets split the usual way into an N / 2 point DCT-II of the sums of mirrored inputs for the even outputs
+     * and one of their differences times 2cos(pi(2k + 1) / 2N) for the odd outputs, where each output is the sum of two odd outputs next to each other.
+     * The 9 and 3 point DCT-IIs that leaves use the mirror symmetry of their cosines. <p>
+     * That's 18 + 9 + 2 * 32 = 91 multiplies for 18 points instead of 324, and 6 + 3 + 2 * 2 = 13 for 6 points instead of 36. <p>
+     * {@link} https://www.underbit.com/products/mad/ (layer3.c, dctIV and sdctII)
+     * @param x input, read from offset every stride values
+     */
+    private void dctIV(double[] x, int offset, int stride, int n, double[] out) {
+        int half = n / 2;
+        double[] scale = n == 18 ? longScale : shortScale;
+        double[] twiddle = n == 18 ? longTwiddle : shortTwiddle;
+        for (int k = 0; k < half; k++) {
+            double a = x[offset + k * stride] * scale[k];
+            double b = x[offset + (n - 1 - k) * stride] * scale[n - 1 - k];
+            dctSums[k] = a + b;
+            dctDifferences[k] = (a - b) * twiddle[k];
+        }
+        if (half == 9) {
+            dctII9(dctSums, dctEven);
+            dctII9(dctDifferences, dctOdd);
+        } else {
+            dctII3(dctSums, dctEven);
+            dctII3(dctDifferences, dctOdd);
+        }
+        // DCT-II outputs, the odd ones are each the difference of the odd half's output and the odd output before
+        out[0] = dctEven[0];
+        out[1] = dctOdd[0] / 2;
+        for (int j = 1; j < half; j++) {
+            out[2 * j] = dctEven[j];
+            out[2 * j + 1] = dctOdd[j] - out[2 * j - 1];
+        }
+        // DCT-IV outputs
+        out[0] /= 2;
+        for (int m = 1; m < n; m++) {
+            out[m] -= out[m - 1];
+        }
+    }
+
+    /**
+     * 9 point DCT-II, cos(pi(2k + 1)j / 18) for input 8 - k is the one for k with the sign flipped on odd j,
+     * so the even outputs only need the sums of mirrored inputs and the odd outputs only their differences.
+     */
+    private void dctII9(double[] x, double[] out) {
+        double s0 = x[0] + x[8], s1 = x[1] + x[7], s2 = x[2] + x[6], s3 = x[3] + x[5];
+        double d0 = x[0] - x[8], d1 = x[1] - x[7], d2 = x[2] - x[6], d3 = x[3] - x[5];
+        double middle = x[4]; // Its cosine is cos(pi * j / 2), so 1, 0 or -1
+        out[0] = s0 + s1 + s2 + s3 + middle;
+        for (int j = 2; j < 9; j += 2) {
+            double[] row = cos9[j];
+            out[j] = s0 * row[0] + s1 * row[1] + s2 * row[2] + s3 * row[3] + ((j & 3) == 0 ? middle : -middle);
+        }
+        for (int j = 1; j < 9; j += 2) {
+            double[] row = cos9[j];
+            out[j] = d0 * row[0] + d1 * row[1] + d2 * row[2] + d3 * row[3];
+        }
+    }
+
+    /**
+     * 3 point DCT-II, where the cosines are 1, cos(30 degrees), 0 and 1/2.
+     */
+    private void dctII3(double[] x, double[] out) {
+        out[0] = x[0] + x[1] + x[2];
+        out[1] = (x[0] - x[2]) * cos30;
+        out[2] = (x[0] + x[2]) / 2 - x[1];
+    }
+
+}
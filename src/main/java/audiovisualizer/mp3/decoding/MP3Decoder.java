@@ -1,83 +1,304 @@
 package audiovisualizer.mp3.decoding;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.StreamCorruptedException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import audiovisualizer.mp3.FrameIndex;
 import audiovisualizer.mp3.MP3;
 import audiovisualizer.mp3.MP3Frame;
 import audiovisualizer.mp3.MP3Header;
+import audiovisualizer.mp3.MP3Header.Layer;
+import audiovisualizer.mp3.MP3Header.MPEGVersion;
 import audiovisualizer.mp3.MP3Header.Mode;
+import audiovisualizer.mp3.VBRHeader;
 
 public class MP3Decoder { 
 
+    /**
+     * What to do with a frame whose CRC doesn't match, which means the bit allocation or side info got corrupted.
+     */
+    public enum CrcPolicy {
+        IGNORE, // Decode it anyway
+        MUTE, // Silence in its place so the timing stays the same
+        SKIP // Leave its audio out
+    }
+
+    /**Samples of delay the decoder itself adds on top of the encoder delay, from the synthesis filterbank and the IMDCT overlap*/
+    static final int decoderDelay = 529;
+
+    private final CrcPolicy crcPolicy;
     private HeaderDecoder headerDecoder = new HeaderDecoder();
-    private List<MP3Frame> frames = new ArrayList<>();
+    private Layer2Decoder layer2 = new Layer2Decoder();
+    private Layer3Decoder layer3 = new Layer3Decoder();
+    private SynthesisFilterbank[] filterbanks = {new SynthesisFilterbank(), new SynthesisFilterbank()};
     private MP3Header currentHeader;
     private short crc = -1;
+    private final int[][] slot = new int[2][32]; // Channel, Sample
+    private VBRHeader vbrHeader; // Tag of the file that was started last, null if it didn't have one
 
+    /**
+     * Mutes frames that fail their CRC.
+     */
+    public MP3Decoder() {
+        this(CrcPolicy.MUTE);
+    }
+
+    public MP3Decoder(CrcPolicy crcPolicy) {
+        this.crcPolicy = crcPolicy;
+    }
+
+    /**
+     * Decodes a whole file. If it has a LAME tag the silence the encoder and decoder added at each end gets cut off,
+     * so the pcm is exactly as long as what was encoded.
+     */
     public MP3 decode(File file) {
+        List<MP3Frame> frames = new ArrayList<>();
+        PCMBuffer pcm = new PCMBuffer(0);
         try {
-            BitInputStream stream = new BitInputStream(new FileInputStream(file));
-            if (checkForMetadata(stream)) {
-                readMetadata(stream);
-            }
-            while (containsSyncWord(stream)) {
-                readFrame(stream);
+            BitReader stream = start(file);
+            MP3Frame frame;
+            while ((frame = nextFrame(stream, pcm)) != null) {
+                // Guess how long the whole file is from the first frame so the pcm doesn't have to keep growing
+                if (frames.isEmpty() && frame.header().frameLength() > 0) {
+                    pcm.ensureCapacity((stream.remaining() / frame.header().frameLength() + 1) * frame.header().samplesPerFrame());
+                }
+                frames.add(frame);
             }
-            stream.close();
-            // System.out.println(count + " frames were read");
-            // System.out.println(frames.size() + " frames were stored");
-            return new MP3(file, frames);
+        } catch (ClosedByInterruptException e) {
+            throw new IllegalStateException("Interrupted while decoding.", e);
         } catch (IOException e) {
             System.out.println("MP3 decoding error with file " + file.getAbsolutePath()); 
             e.printStackTrace();
         }
-        return new MP3(file, frames);
+        MP3 mp3 = new MP3(file, frames, pcm.pcm());
+        return vbrHeader != null && vbrHeader.gapless() ? trimGapless(mp3, pcm.channels(), vbrHeader) : mp3;
+    }
+
+    /**
+     * Cuts the encoder delay plus {@link #decoderDelay} off the start and the padding off the end, keeping {@link VBRHeader#totalSamples()}.
+     * Frames keep their place in the list but their samples get moved and clamped to what's left, so frames that were all delay have none.
+     * @param channels number of channels in the pcm
+     */
+    static MP3 trimGapless(MP3 mp3, int channels, VBRHeader tag) {
+        if (channels == 0) return mp3;
+        int bytesPerSample = 2 * channels;
+        ByteBuffer pcm = mp3.pcm();
+        long decoded = pcm.remaining() / bytesPerSample;
+        long start = Math.min(tag.encoderDelay() + decoderDelay, decoded);
+        long end = Math.min(start + tag.totalSamples(), decoded);
+        List<MP3Frame> frames = new ArrayList<>(mp3.frames().size());
+        for (MP3Frame frame : mp3.frames()) {
+            long first = Math.max(start, Math.min(frame.firstSample(), end));
+            long last = Math.max(start, Math.min(frame.firstSample() + frame.samples(), end));
+            frames.add(new MP3Frame(frame.header(), frame.crcToCheck(), frame.passedCrc(), first - start, (int) (last - first), frame.ancillaryData()));
+        }
+        pcm.limit((int) (end * bytesPerSample)).position((int) (start * bytesPerSample));
+        return new MP3(mp3.file(), frames, pcm.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Opens a file to be decoded one frame at a time as the frames are asked for, so only the frame being handed out is in memory.
+     * The reader uses this decoder, so the decoder can't be used for anything else until the reader is done.
+     */
+    public MP3FrameReader open(File file) throws IOException {
+        BitReader stream = start(file);
+        return new MP3FrameReader(this, stream, vbrHeader);
+    }
+
+    /**
+     * Opens a file and gets past the metadata at the start, and the frame with the Xing or VBRI tag if there is one.
+     */
+    private BitReader start(File file) throws IOException {
+        BitReader stream = BitReader.open(file);
+        reset();
+        ID3Reader.skip(stream);
+        vbrHeader = new VBRHeaderReader().read(stream);
+        return stream;
+    }
+
+    /**
+     * Decodes the next frame with a valid header.
+     * @param pcm where the frame's audio gets written
+     * @return the frame, or null at the end of the stream
+     */
+    MP3Frame nextFrame(BitReader stream, PCMBuffer pcm) throws IOException {
+        while (containsSyncWord(stream)) {
+            MP3Frame frame = readFrame(stream, pcm);
+            if (frame != null) return frame;
+        }
+        return null;
+    }
+
+    /**
+     * Decodes only the frames that cover a range of time, using the file's {@link FrameIndex} to jump straight to them.
+     */
+    public MP3 decode(File file, double startSeconds, double endSeconds) {
+        return decode(file, new FrameIndexer().index(file), startSeconds, endSeconds);
+    }
+
+    /**
+     * Decodes only the frames that cover a range of time.
+     * @param index index of the file, from {@link FrameIndexer}
+     */
+    public MP3 decode(File file, FrameIndex index, double startSeconds, double endSeconds) {
+        if (index.frameCount() > 0 && endSeconds >= startSeconds) {
+            try {
+                return decodeFrames(file, BitReader.open(file), index, index.frameAt(startSeconds), index.frameAt(endSeconds), 0);
+            } catch (ClosedByInterruptException e) {
+                throw new IllegalStateException("Interrupted while decoding.", e);
+            } catch (IOException e) {
+                System.out.println("MP3 decoding error with file " + file.getAbsolutePath()); 
+                e.printStackTrace();
+            }
+        }
+        return new MP3(file, new ArrayList<>(), new PCMBuffer(0).pcm());
+    }
+
+    /**
+     * Decodes a run of frames from the index. The frames before it that they depend on get decoded first and thrown away,
+     * so the pcm comes out the same as if the whole file was decoded.
+     * @param firstFrame first frame to keep
+     * @param lastFrame last frame to keep, inclusive
+     * @param channels number of channels in the pcm, 0 to go with the first frame
+     */
+    MP3 decodeFrames(File file, BitReader stream, FrameIndex index, int firstFrame, int lastFrame, int channels) throws IOException {
+        List<MP3Frame> frames = new ArrayList<>();
+        long end = lastFrame + 1 < index.frameCount() ? index.firstSamples()[lastFrame + 1] : index.totalSamples();
+        PCMBuffer pcm = new PCMBuffer(channels, end - index.firstSamples()[firstFrame]);
+        PCMBuffer thrownAway = new PCMBuffer(channels);
+        reset();
+        for (int frame = firstFrame - prerollFrames(stream, index, firstFrame); frame <= lastFrame; frame++) {
+            stream.position(index.offsets()[frame]);
+            if (!containsSyncWord(stream)) continue;
+            if (frame < firstFrame) {
+                thrownAway.clear();
+                readFrame(stream, thrownAway);
+                continue;
+            }
+            MP3Frame decoded = readFrame(stream, pcm);
+            if (decoded != null) frames.add(decoded);
+        }
+        return new MP3(file, frames, pcm.pcm());
     }
-    public static int count = 0;
-    private void readFrame(BitInputStream stream) throws IOException {
+
+    /**
+     * How many frames have to be decoded before a frame so the state carried between frames is the same as when decoding from the start.
+     * The filterbanks remember 16 time slots, which is 2 Layer I frames or 1 frame of the other layers.
+     * Layer III also overlaps each granule with the one before it, which means 2 frames at the lower sampling frequencies,
+     * and the earliest of those frames can start its main data up to 511 bytes back (255 for the lower sampling frequencies)
+     * so there have to be enough frames before it to fill the bit reservoir.
+     */
+    int prerollFrames(BitReader stream, FrameIndex index, int frame) throws IOException {
+        MP3Header header = headerAt(stream, index.offsets()[frame]);
+        if (header == null) return Math.min(frame, 2);
+        int preroll = switch(header.layer()) {
+            case LAYER1 -> 2;
+            case LAYER2 -> 1;
+            case LAYER3 -> header.version() == MPEGVersion.MPEG_1 ? 1 : 2;
+        };
+        if (header.layer() == Layer.LAYER3) {
+            int reach = header.version() == MPEGVersion.MPEG_1 ? 511 : 255;
+            while (reach > 0 && preroll < frame) {
+                MP3Header before = headerAt(stream, index.offsets()[frame - preroll - 1]);
+                if (before == null) break;
+                reach -= before.frameLength() - 4 - (before.errorProtection() ? 2 : 0) - Layer3Decoder.sideInfoLength(before);
+                preroll++;
+            }
+        }
+        return Math.min(frame, preroll);
+    }
+
+    /**
+     * @return the header at a byte offset, or null if there isn't a valid one there
+     */
+    MP3Header headerAt(BitReader stream, long offset) throws IOException {
+        stream.position(offset);
+        if (!HeaderDecoder.isSyncWord(stream.peekBits(16))) return null;
+        stream.skip(1);
+        try {
+            return headerDecoder.readFrameHeader(stream);
+        } catch (StreamCorruptedException e) {
+            return null;
+        }
+    }
+
+    /*
+     * A Layer I allocation of a means a + 1 bits and 2^(a + 1) - 1 levels, a sample code c dequantizes to c * step - offset,
+     * the same as C * (s''' + D) from the standard but without having to flip bits.
+     */
+    private static final double[] layer1Step = new double[15];
+    private static final double[] layer1Offset = new double[15];
+
+    static {
+        for (int allocation = 1; allocation < 15; allocation++) {
+            int levels = (1 << (allocation + 1)) - 1;
+            layer1Step[allocation] = 2.0 / levels;
+            layer1Offset[allocation] = (levels - 1) / (double) levels;
+        }
+    }
+
+    /**
+     * @return the frame, or null if its header is broken
+     */
+    private MP3Frame readFrame(BitReader stream, PCMBuffer pcm) throws IOException {
+        long frameStart = stream.position() - 1; // The first byte of the sync word was already read
         try {
             currentHeader = headerDecoder.readFrameHeader(stream);
         } catch (StreamCorruptedException e) {
             if (e.getMessage() != null && e.getMessage().startsWith("MP3 Header Invalid")) {
-                // count++;
-                return; // If this frame has a messed up header ideally we should skip it.
+                stream.position(frameStart + 1); // Keep looking right after the fake sync word
+                return null; // If this frame has a messed up header ideally we should skip it.
             }
         }
-        if (currentHeader.errorProtection()) crc = readCRC(stream);
+        crc = currentHeader.errorProtection() ? readCRC(stream) : -1;
         // System.out.println(currentHeader);
-        int[][][] pcm = switch(currentHeader.layer()) {
+        double[][][] subbands = switch(currentHeader.layer()) {
             case LAYER1 -> readAudioDataLayer1(stream);
-            case LAYER2 -> readAudioDataLayer2(stream);
-            case LAYER3 -> readAudioDataLayer3(stream);
+            case LAYER2 -> layer2.decode(currentHeader, stream);
+            case LAYER3 -> layer3.decode(currentHeader, stream);
         };
-        frames.add(new MP3Frame(currentHeader, crc, true, pcm, null));
+        boolean passedCrc = !currentHeader.errorProtection() || CRC16.compute(stream, frameStart, protectedBits()) == (crc & 0xFFFF);
+        long firstSample = pcm.position();
+        int samples = subbands[0].length * 32;
+        if (!passedCrc && crcPolicy != CrcPolicy.IGNORE) {
+            if (currentHeader.layer() == Layer.LAYER3) layer3.forgetOverlap();
+            if (crcPolicy == CrcPolicy.MUTE) {
+                for (double[][] channel : subbands) {
+                    for (double[] s : channel) {
+                        Arrays.fill(s, 0);
+                    }
+                }
+            } else {
+                samples = 0;
+            }
+        }
+        if (samples > 0) synthesize(subbands, pcm);
+        // Skip any ancillary data so it can't be mistaken for a sync word
+        if (currentHeader.frameLength() > 0) stream.position(Math.min(frameStart + currentHeader.frameLength(), stream.length()));
+        return new MP3Frame(currentHeader, crc, passedCrc, firstSample, samples, null);
     }
 
     /**
      * Looks for a sync word until it hits EOF at which point it returns false. 
-     * If it does find a syncword then it goes back 1 byte so that it can be used in the header.
+     * If it does find a syncword then it's left on the second byte so that it can be used in the header.
      * @param stream
      * @return the second byte used for the syncword since it contains header information
      * @throws IOException
      */
-    private boolean containsSyncWord(BitInputStream stream) throws IOException {
+    private boolean containsSyncWord(BitReader stream) throws IOException {
         stream.assertByteBoundary(); // All sync words should be on byte boundaries...
         while (true) {
-            int syncword1 = stream.read();
-            int syncword2 = stream.read();
-            if (syncword1 == -1 || syncword2 == -1) return false;
-            // Confirm that the sync word is 11 '1' bits and that the version and or layer is not reserved.
-            stream.skip(-1);
-            if (syncword1 != 0xFF || (syncword2 >> 5) != 7 || ((syncword2 & 0b00011000) >> 3 == 1) || ((syncword2 & 0b00000110) >> 1 == 0)) {
-                continue;
-            }
-            return true;
+            int syncword = stream.peekBits(16);
+            if (syncword == -1) return false;
+            stream.skip(1);
+            if (HeaderDecoder.isSyncWord(syncword)) return true;
         }        
     }
 
@@ -87,23 +308,40 @@ public class MP3Decoder {
      * @return The crc that was read
      * @throws IOException
      */
-    private short readCRC(BitInputStream stream) throws IOException {
-        return ByteBuffer.wrap(stream.readNBytes(2)).getShort();
+    private short readCRC(BitReader stream) throws IOException {
+        return (short) stream.readNBits(16);
     }
 
     /**
+     * @return how many bits after the CRC of the current frame its CRC covers
+     */
+    private int protectedBits() {
+        return switch(currentHeader.layer()) {
+            case LAYER1 -> {
+                if (currentHeader.mode() == Mode.SINGLE_CHANNEL) yield 32 * 4;
+                int bound = currentHeader.mode() == Mode.JOINT_STEREO ? (currentHeader.modeExtensionNumber()+1)*4 : 32;
+                yield (bound * 2 + (32 - bound)) * 4;
+            }
+            case LAYER2 -> layer2.protectedBits();
+            case LAYER3 -> Layer3Decoder.sideInfoLength(currentHeader) * 8;
+        };
+    }
+
+    /**
+     * Layer I dequantization is a multiply and add per sample using constants for the allocation, then a scalefactor from a table. <p>
      * {@link} https://www.iso.org/standard/22412.html Section 2.4.1.5 and Section 2.4.3.2
      * @param stream
+     * @return subband samples as channel, time slot and subband, 12 time slots
      * @throws IOException
      */
-    private int[][][] readAudioDataLayer1(BitInputStream stream) throws IOException {
+    private double[][][] readAudioDataLayer1(BitReader stream) throws IOException {
         int maxChannels = currentHeader.mode() == Mode.SINGLE_CHANNEL ? 1 : 2;
         int[][] bitAllocation = new int[maxChannels][32]; // Channel, Sub-band
         int[][] scaleFactor = new int[maxChannels][32]; // Channel, Sub-band
-        int[][][] sample = new int[maxChannels][32][12]; // Channel, Sub-band, Sample
-        int[][][] fractionalNumbers = new int[maxChannels][32][12]; // Channel, Sub-band, Sample 
-        int[][][]  requantizedSamples = new int[maxChannels][32][12]; // Channel, Sub-band, Sample 
+        double[][][] subbands = new double[maxChannels][12][32]; // Channel, Sample, Sub-band
         int bound = currentHeader.mode() == Mode.JOINT_STEREO ? (currentHeader.modeExtensionNumber()+1)*4 : 32;
+        int dataLength = currentHeader.frameLength() - 4 - (currentHeader.errorProtection() ? 2 : 0);
+        if (stream.remaining() < dataLength) return subbands; // Cut off at the end of the file
         for (int subBand = 0; subBand < bound; subBand++) {
             for (int channel = 0; channel < maxChannels; channel++) {
                 bitAllocation[channel][subBand] = stream.readNBits(4);
@@ -117,102 +355,53 @@ public class MP3Decoder {
         }
         for (int subBand = 0; subBand < 32; subBand++) {
             for (int channel = 0; channel < maxChannels; channel++) {
+                if (bitAllocation[channel][subBand] == 15) return subbands; // Not allowed, the frame is broken
                 if (bitAllocation[channel][subBand] != 0) {
                     scaleFactor[channel][subBand] = stream.readNBits(6);
                 }
             }
         }
         for (int s = 0; s < 12; s++) {
-            for (int subBand = 0; subBand < bound; subBand++) {
-                for (int channel = 0; channel < maxChannels; channel++) {
-                    if (bitAllocation[channel][subBand] != 0) {
-                        sample[channel][subBand][s] = stream.readNBits(bitAllocation[channel][subBand]+1);
-                    }
-                }
-            }
-            for (int subBand = bound; subBand < 32; subBand++) {
-                if (bitAllocation[0][subBand] != 0) {
-                    sample[0][subBand][s] = stream.readNBits(bitAllocation[0][subBand]+1);
-                }
-            }
-            // Requantization of subband samples 
-            for (int subBand = 0; subBand < bound; subBand++) {
-                for (int channel = 0; channel < maxChannels; channel++) {
-                    if (bitAllocation[channel][subBand] != 0) {
-                        int shiftAmount = (numBits(sample[channel][subBand][s])-1);
-                        // Invert first bit
-                        fractionalNumbers[channel][subBand][s] = sample[channel][subBand][s] ^ (1 << shiftAmount); 
-                        // Apply formula
-                        requantizedSamples[channel][subBand][s] = 
-                        requantizationFormula(fractionalNumbers[channel][subBand][s], bitAllocation[channel][subBand]+1);
-                        // Apply scale factor
-                        requantizedSamples[channel][subBand][s] = requantizedSamples[channel][subBand][s] * scaleFactor[channel][subBand];
+            for (int subBand = 0; subBand < 32; subBand++) {
+                // Past the bound the channels share one sample but each has its own scalefactor
+                int channels = subBand < bound ? maxChannels : 1;
+                for (int channel = 0; channel < channels; channel++) {
+                    int allocation = bitAllocation[channel][subBand];
+                    if (allocation == 0) continue;
+                    int sample = stream.readNBits(allocation + 1);
+                    double fraction = sample * layer1Step[allocation] - layer1Offset[allocation];
+                    for (int c = channel; c < (subBand < bound ? channel + 1 : maxChannels); c++) {
+                        subbands[c][s][subBand] = fraction * Layer2Decoder.scalefactors[scaleFactor[c][subBand]];
                     }
                 }
             }
         }
-        return requantizedSamples;
-    }
-
-    private int requantizationFormula(int fractionalNumber, int bitsAllocated) {
-        double requantizedValue = 
-        (Math.pow(2, bitsAllocated) / (Math.pow(2, bitsAllocated)-1)) * (fractionalNumber + Math.pow(2, (-1*bitsAllocated+1)));
-        return (int) Math.round(requantizedValue);
-    } 
-
-    private int[][][] readAudioDataLayer2(BitInputStream stream) throws IOException {
-        return null;
-    }
-
-    private int[][][] readAudioDataLayer3(BitInputStream stream) throws IOException {
-        return null;
-    }
-
-    private int numBits(int i) {
-        return Integer.toBinaryString(i).length();
+        return subbands;
     }
 
     /**
-     * Checks for ID3v2 metadata. <p>
-     * {@link} https://id3.org/id3v2.4.0-structure
+     * Runs subband samples through each channel's synthesis filterbank and writes the pcm one time slot at a time.
+     * @param subbands channel, time slot, subband
      */
-    private boolean checkForMetadata(BitInputStream stream) throws IOException {
-        String id3 = "ID3";
-        byte[] bytes = stream.readNBytes(3);
-        for (int i = 0; i < bytes.length; i++) {
-            if (bytes[i] != id3.charAt(i)) {
-                stream.skip(-3);
-                return false;
+    private void synthesize(double[][][] subbands, PCMBuffer pcm) {
+        int slots = subbands[0].length;
+        pcm.ensureCapacity(slots * 32);
+        for (int s = 0; s < slots; s++) {
+            for (int channel = 0; channel < subbands.length; channel++) {
+                filterbanks[channel].synthesize(subbands[channel][s], slot[channel], 0);
             }
+            pcm.put(slot, subbands.length);
         }
-        return true;
     }
 
     /**
-     * Reads ID3v2 metadata. Subclasses can override this method to read and return metadata. <p>
-     * {@link} https://id3.org/id3v2.4.0-structure
+     * Forgets everything carried between frames, for starting a new file or jumping somewhere else in one.
      */
-    private void readMetadata(BitInputStream stream) throws IOException {
-        stream.skip(2); // Skip ID3 version bytes
-        boolean footer = false;
-        int flags = stream.read(); // Get ID3 flags
-        if ((flags & 0b0001000) != 0) footer = true; // If the footer flag is set then it's not zero and there is a footer
-        byte[] b = stream.readNBytes(4);
-        int[] bytes = new int[b.length];
-        for (int i = 0; i < b.length; i++) {
-            bytes[i] = b[i];
-        }
-        for (int i = 0; i < bytes.length-1; i++) { // Synchsafe integer bullshit
-            int lastBit = bytes[i] & 1;
-            bytes[i] = bytes[i] >> 1;
-            bytes[i+1] = bytes[i+1] | (lastBit << 7);
-        }
-        for (int i = 0; i < b.length; i++) {
-            b[i] = (byte) bytes[i];
+    private void reset() {
+        layer3.reset();
+        for (SynthesisFilterbank filterbank : filterbanks) {
+            filterbank.reset();
         }
-        int metadataSize = ByteBuffer.wrap(b).getInt(); // Get size of ID3 tag
-        if (footer) metadataSize += 10;
-        stream.skip(metadataSize);
     }
     
 }
@@ -0,0 +1,93 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import audiovisualizer.mp3.MP3Frame;
+import audiovisualizer.mp3.VBRHeader;
+
+/**
+ * Hands out the frames of an MP3 one at a time, each frame is only decoded when it's asked for.
+ * At most one frame is held on to, the one {@link #hasNext()} had to decode to know there was one,
+ * so memory doesn't grow with the length of the file and whatever's using the frames can start before the decoding is done.
+ * Each frame's audio is in {@link #pcm()} until the reader moves on, and its {@link MP3Frame#firstSample()} counts from the start of the file. <p>
+ * Made by {@link MP3Decoder#open}. Closing lets go of the file's bytes and ends the frames early. <p>
+ * Unlike {@link MP3Decoder#decode(java.io.File)} the encoder delay and padding aren't cut off, since the reader can't know which frame is last,
+ * but {@link #vbrHeader()} has what's needed to do it.
+ */
+public class MP3FrameReader implements Iterator<MP3Frame>, AutoCloseable {
+
+    private final MP3Decoder decoder;
+    private BitReader stream;
+    private MP3Frame next;
+    private final PCMBuffer pcm = new PCMBuffer(0);
+    private final VBRHeader vbrHeader;
+
+    MP3FrameReader(MP3Decoder decoder, BitReader stream, VBRHeader vbrHeader) {
+        this.decoder = decoder;
+        this.stream = stream;
+        this.vbrHeader = vbrHeader;
+    }
+
+    /**
+     * The file's Xing or VBRI tag, which has its length without reading the whole thing. Null if it doesn't have one.
+     */
+    public VBRHeader vbrHeader() {
+        return vbrHeader;
+    }
+
+    /**
+     * @throws UncheckedIOException if the next frame couldn't be read
+     */
+    @Override
+    public boolean hasNext() {
+        if (next != null) return true;
+        if (stream == null) return false;
+        try {
+            pcm.clear();
+            next = decoder.nextFrame(stream, pcm);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (next == null) close();
+        return next != null;
+    }
+
+    @Override
+    public MP3Frame next() {
+        if (!hasNext()) throw new NoSuchElementException("No frames left.");
+        MP3Frame frame = next;
+        next = null;
+        return frame;
+    }
+
+    /**
+     * Audio of the frame that was just handed out by {@link #next()}, as little endian 16 bit pcm with the channels interleaved.
+     * It's only good until {@link #hasNext()} or {@link #next()} is called again, since the next frame gets decoded into the same memory.
+     */
+    public ByteBuffer pcm() {
+        return pcm.pcm();
+    }
+
+    /**
+     * The rest of the frames as a sequential stream, closing the stream closes this reader.
+     */
+    public Stream<MP3Frame> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        stream = null;
+        next = null;
+    }
+
+}
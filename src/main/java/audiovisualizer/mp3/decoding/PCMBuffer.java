@@ -0,0 +1,119 @@
+package audiovisualizer.mp3.decoding;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decoded audio as one block of little endian 16 bit pcm with the channels interleaved, the layout the analysis reads straight out of.
+ * It grows as frames get written, and once it's big it lives off the heap the same way big files get memory mapped by {@link BitReader}.
+ * A frame with a different number of channels than the rest gets mixed to fit, a mono frame goes to both sides
+ * and a stereo one gets averaged.
+ */
+class PCMBuffer {
+
+    /**Buffers bigger than this go off the heap*/
+    private static final long directThreshold = 64 * 1024 * 1024;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+    private int channels;
+    /**Samples per channel written since the last clear*/
+    private int samples = 0;
+    /**Samples per channel that were cleared out*/
+    private long cleared = 0;
+
+    /**
+     * @param channels number of channels, or 0 to use whatever the first frame has
+     */
+    PCMBuffer(int channels) {
+        this.channels = channels;
+    }
+
+    /**
+     * @param capacity samples per channel to make room for up front
+     */
+    PCMBuffer(int channels, long capacity) {
+        this(channels);
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Makes room for more samples per channel, growing by at least double so writing a frame at a time doesn't keep copying.
+     */
+    void ensureCapacity(long more) {
+        int bytesPerSample = 2 * (channels == 0 ? 2 : channels);
+        long needed = (samples + more) * bytesPerSample;
+        if (needed <= buffer.capacity()) return;
+        if (needed > Integer.MAX_VALUE) throw new IllegalStateException("Decoded audio is bigger than 2 GB.");
+        long capacity = Math.min(Math.max(needed, buffer.capacity() * 2L), Integer.MAX_VALUE);
+        ByteBuffer grown = capacity > directThreshold ? ByteBuffer.allocateDirect((int) capacity) : ByteBuffer.allocate((int) capacity);
+        grown.put(buffer.duplicate().clear().limit(samples * bytesPerSample));
+        buffer = grown.clear().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes one time slot of 32 samples from each channel. There has to be room for it already, see {@link #ensureCapacity}.
+     * @param slot channel, sample
+     * @param frameChannels number of channels in the slot
+     */
+    void put(int[][] slot, int frameChannels) {
+        if (channels == 0) channels = frameChannels;
+        int index = samples * channels * 2;
+        if (frameChannels == channels) {
+            for (int i = 0; i < 32; i++) {
+                for (int channel = 0; channel < channels; channel++) {
+                    buffer.putShort(index, (short) slot[channel][i]);
+                    index += 2;
+                }
+            }
+        } else if (frameChannels == 1) {
+            for (int i = 0; i < 32; i++) {
+                buffer.putShort(index, (short) slot[0][i]);
+                buffer.putShort(index + 2, (short) slot[0][i]);
+                index += 4;
+            }
+        } else {
+            for (int i = 0; i < 32; i++) {
+                buffer.putShort(index, (short) ((slot[0][i] + slot[1][i]) >> 1));
+                index += 2;
+            }
+        }
+        samples += 32;
+    }
+
+    /**
+     * Copies pcm with the same number of channels onto the end.
+     */
+    void append(ByteBuffer pcm) {
+        int bytesPerSample = 2 * channels;
+        ensureCapacity(pcm.remaining() / bytesPerSample);
+        buffer.put(samples * bytesPerSample, pcm, pcm.position(), pcm.remaining());
+        samples += pcm.remaining() / bytesPerSample;
+    }
+
+    /**
+     * Throws away everything written so far, {@link #position()} keeps counting from where it was.
+     */
+    void clear() {
+        cleared += samples;
+        samples = 0;
+    }
+
+    /**
+     * @return number of the next sample to be written, counting everything that was cleared
+     */
+    long position() {
+        return cleared + samples;
+    }
+
+    int channels() {
+        return channels;
+    }
+
+    /**
+     * @return the pcm written since the last clear, sharing this buffer's memory
+     */
+    ByteBuffer pcm() {
+        return buffer.duplicate().clear().limit(samples * channels * 2).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
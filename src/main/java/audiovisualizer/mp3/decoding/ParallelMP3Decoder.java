@@ -0,0 +1,180 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import audiovisualizer.mp3.FrameIndex;
+import audiovisualizer.mp3.MP3;
+import audiovisualizer.mp3.MP3Frame;
+import audiovisualizer.mp3.MP3Header;
+import audiovisualizer.mp3.MP3Header.Mode;
+import audiovisualizer.mp3.VBRHeader;
+import audiovisualizer.mp3.decoding.MP3Decoder.CrcPolicy;
+
+/**
+ * Decodes MP3s on every core. The calling thread splits each file into segments of frames using its {@link FrameIndex},
+ * and a pool of threads decodes the segments, each with its own {@link MP3Decoder}. The decoded segments come back in order through
+ * a queue that only lets a few segments per thread be in flight, then their pcm gets copied onto the end of the file's pcm. <p>
+ * Frames depend on the ones before them through the filterbanks, and for Layer III the bit reservoir and the IMDCT overlap.
+ * Each segment decodes the frames it depends on first and throws them away (see {@link MP3Decoder#prerollFrames}),
+ * so the pcm is the same as decoding the frames in the index one after another.
+ * Files with a LAME tag get the encoder delay and padding cut off the same way as {@link MP3Decoder#decode(File)}.
+ */
+public class ParallelMP3Decoder implements AutoCloseable {
+
+    private static final int framesPerSegment = 128;
+    private static final int segmentsPerThread = 2;
+
+    private final ExecutorService pool;
+    private final int threads;
+    private final CrcPolicy crcPolicy;
+
+    /**
+     * Uses one thread per core and mutes frames that fail their CRC.
+     */
+    public ParallelMP3Decoder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads number of threads to decode with
+     */
+    public ParallelMP3Decoder(int threads) {
+        this(threads, CrcPolicy.MUTE);
+    }
+
+    /**
+     * @param threads number of threads to decode with
+     * @param crcPolicy what to do with frames that fail their CRC
+     */
+    public ParallelMP3Decoder(int threads, CrcPolicy crcPolicy) {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads is < 1.");
+        this.threads = threads;
+        this.crcPolicy = crcPolicy;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "MP3 decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public MP3 decode(File file) {
+        return decode(List.of(file)).get(0);
+    }
+
+    /**
+     * Decodes a batch of files, like an album. Segments from the next file start decoding while the last one is still finishing.
+     * @return the decoded files in the same order
+     * @throws IllegalStateException if a segment fails to decode or the calling thread gets interrupted, the segments still waiting get cancelled
+     */
+    public List<MP3> decode(List<File> files) {
+        FrameIndexer indexer = new FrameIndexer();
+        VBRHeaderReader vbrHeaderReader = new VBRHeaderReader();
+        Queue<Segment> queue = new ArrayDeque<>();
+        List<List<MP3Frame>> decoded = new ArrayList<>();
+        List<PCMBuffer> pcm = new ArrayList<>();
+        List<VBRHeader> tags = new ArrayList<>();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                File file = files.get(i);
+                decoded.add(new ArrayList<>());
+                pcm.add(new PCMBuffer(0));
+                tags.add(null);
+                FrameIndex index = indexer.index(file);
+                if (index.frameCount() == 0) continue;
+                BitReader stream;
+                int channels;
+                try {
+                    stream = BitReader.open(file);
+                    tags.set(i, vbrHeaderReader.readFromStart(stream));
+                    // Every segment uses the first frame's channels so they can be put back together
+                    MP3Header first = new MP3Decoder().headerAt(stream, index.offsets()[0]);
+                    channels = first == null || first.mode() != Mode.SINGLE_CHANNEL ? 2 : 1;
+                    pcm.set(i, new PCMBuffer(channels, index.totalSamples()));
+                } catch (ClosedByInterruptException e) {
+                    throw new IllegalStateException("Interrupted while decoding.", e);
+                } catch (IOException e) {
+                    System.out.println("MP3 decoding error with file " + file.getAbsolutePath());
+                    e.printStackTrace();
+                    continue;
+                }
+                for (int first = 0; first < index.frameCount(); first += framesPerSegment) {
+                    if (queue.size() == threads * segmentsPerThread) collect(queue.remove(), queue, decoded, pcm);
+                    int last = Math.min(first + framesPerSegment, index.frameCount()) - 1;
+                    BitReader segmentStream = stream.duplicate();
+                    int firstFrame = first;
+                    queue.add(new Segment(i, file, pool.submit(() -> new MP3Decoder(crcPolicy).decodeFrames(file, segmentStream, index, firstFrame, last, channels))));
+                }
+            }
+            while (!queue.isEmpty()) {
+                collect(queue.remove(), queue, decoded, pcm);
+            }
+        } catch (RuntimeException e) {
+            cancel(queue); // Indexing can get interrupted too, and the segments already queued shouldn't keep the pool busy
+            throw e;
+        }
+        List<MP3> mp3s = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            MP3 mp3 = new MP3(files.get(i), decoded.get(i), pcm.get(i).pcm());
+            VBRHeader tag = tags.get(i);
+            mp3s.add(tag != null && tag.gapless() ? MP3Decoder.trimGapless(mp3, pcm.get(i).channels(), tag) : mp3);
+        }
+        return mp3s;
+    }
+
+    /**
+     * Waits for a segment and adds its frames and pcm onto the end of its file, moving the frames to where their pcm ends up.
+     * A file missing a segment would have a gap in its pcm with every frame after it in the wrong place, so a failed segment fails the whole batch.
+     * @param queue the segments after this one, cancelled if it fails or the wait is interrupted
+     */
+    private void collect(Segment segment, Queue<Segment> queue, List<List<MP3Frame>> decoded, List<PCMBuffer> pcm) {
+        try {
+            MP3 mp3 = segment.mp3().get();
+            PCMBuffer filePCM = pcm.get(segment.fileNumber());
+            long offset = filePCM.position();
+            for (MP3Frame frame : mp3.frames()) {
+                decoded.get(segment.fileNumber()).add(new MP3Frame(frame.header(), frame.crcToCheck(), frame.passedCrc(),
+                    offset + frame.firstSample(), frame.samples(), frame.ancillaryData()));
+            }
+            filePCM.append(mp3.pcm());
+        } catch (InterruptedException e) {
+            segment.mp3().cancel(true);
+            cancel(queue);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while decoding.", e);
+        } catch (ExecutionException e) {
+            cancel(queue);
+            throw new IllegalStateException("Decoding a segment of " + segment.file().getAbsolutePath() + " failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the segments that haven't been collected so they don't hold up the pool.
+     */
+    private void cancel(Queue<Segment> queue) {
+        for (Segment segment : queue) {
+            segment.mp3().cancel(true);
+        }
+        queue.clear();
+    }
+
+    private record Segment(int fileNumber, File file, Future<MP3> mp3) {}
+
+    /**
+     * Shuts down the threads once the decoding that's already running is done.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+}
@@ -0,0 +1,138 @@
+package audiovisualizer.mp3.decoding;
+
+import java.util.Arrays;
+
+/**
+ * Polyphase synthesis filterbank that turns 32 subband samples back into 32 pcm samples, it's the last step of every layer.
+ * Each channel needs its own since it remembers the last 16 sets of subband samples. <p>
+ * The matrixing step from the standard is a 64 by 32 matrix, but its rows are just a 32 point DCT-II shifted around,
+ * so it's done with Lee's fast DCT which takes 80 multiplies instead of 2048. <p>
+ * {@link} https://www.iso.org/standard/22412.html Section 2.4.3.2.2, Figure A.2 and Table B.3
+ * {@link} https://doi.org/10.1109/TASSP.1984.1164443
+ */
+public class SynthesisFilterbank {
+
+    /**First half of the synthesis window D[0..256] from Table B.3 times 65536, the other half is a mirror of it*/
+    private static final int[] windowHalf = {
+        0, -1, -1, -1, -1, -1, -1, -2, -2, -2, -2, -3, -3, -4, -4, -5, -5, -6, -7, -7, -8, -9, -10, -11, -13, -14, -16, -17, -19, -21, -24, -26,
+        -29, -31, -35, -38, -41, -45, -49, -53, -58, -63, -68, -73, -79, -85, -91, -97, -104, -111, -117, -125, -132, -139, -147, -154, -161, -169, -176, -183, -190, -196, -202, -208,
+        213, 218, 222, 225, 227, 228, 228, 227, 224, 221, 215, 208, 200, 189, 177, 163, 146, 127, 106, 83, 57, 29, -2, -36, -72, -111, -153, -197, -244, -294, -347, -401,
+        -459, -519, -581, -645, -711, -779, -848, -919, -991, -1064, -1137, -1210, -1283, -1356, -1428, -1498, -1567, -1634, -1698, -1759, -1817, -1870, -1919, -1962, -2001, -2032, -2057, -2075, -2085, -2087, -2080, -2063,
+        2037, 2000, 1952, 1893, 1822, 1739, 1644, 1535, 1414, 1280, 1131, 970, 794, 605, 402, 185, -45, -288, -545, -814, -1095, -1388, -1692, -2006, -2330, -2663, -3004, -3351, -3705, -4063, -4425, -4788,
+        -5153, -5517, -5879, -6237, -6589, -6935, -7271, -7597, -7910, -8209, -8491, -8755, -8998, -9219, -9416, -9585, -9727, -9838, -9916, -9959, -9966, -9935, -9863, -9750, -9592, -9389, -9139, -8840, -8492, -8092, -7640, -7134,
+        6574, 5959, 5288, 4561, 3776, 2935, 2037, 1082, 70, -998, -2122, -3300, -4533, -5818, -7154, -8540, -9975, -11455, -12980, -14548, -16155, -17799, -19478, -21189, -22929, -24694, -26482, -28289, -30112, -31947, -33791, -35640,
+        -37489, -39336, -41176, -43006, -44821, -46617, -48390, -50137, -51853, -53534, -55178, -56778, -58333, -59838, -61289, -62684, -64019, -65290, -66494, -67629, -68692, -69679, -70590, -71420, -72169, -72835, -73415, -73908, -74313, -74630, -74856, -74992,
+        75038
+    };
+    private static final double[] window = new double[512];
+    /**Lee's DCT divides the differences by 2cos((2k + 1) pi / 2n) at each size n, this is 1 over that for n = 2, 4, 8, 16, 32*/
+    private static final double[][] dctScales = new double[33][];
+
+    static {
+        for (int i = 0; i <= 256; i++) {
+            window[i] = windowHalf[i] / 65536.0;
+        }
+        // The window is the prototype filter with the sign flipped every 64 taps, so mirroring it flips the sign except on multiples of 64
+        for (int i = 1; i < 256; i++) {
+            window[512 - i] = (i % 64 == 0) ? window[i] : -window[i];
+        }
+        for (int n = 2; n <= 32; n *= 2) {
+            dctScales[n] = new double[n / 2];
+            for (int k = 0; k < n / 2; k++) {
+                dctScales[n][k] = 1 / (2 * Math.cos((2 * k + 1) * Math.PI / (2 * n)));
+            }
+        }
+    }
+
+    /**V from the standard, used as a ring so shifting it is just moving the offset*/
+    private final double[] v = new double[1024];
+    private int offset = 0;
+    /**DCT output and the scratch space for each size of the recursion, indexed by size*/
+    private final double[] dct = new double[32];
+    private final double[][] evens = new double[33][];
+    private final double[][] odds = new double[33][];
+    private final double[][] evenOut = new double[33][];
+    private final double[][] oddOut = new double[33][];
+
+    public SynthesisFilterbank() {
+        for (int n = 2; n <= 32; n *= 2) {
+            evens[n] = new double[n / 2];
+            odds[n] = new double[n / 2];
+            evenOut[n] = new double[n / 2];
+            oddOut[n] = new double[n / 2];
+        }
+    }
+
+    /**
+     * @param subbands 32 subband samples from the same time slot, they aren't changed
+     * @param pcm gets 32 16 bit pcm samples, clipped if they go over
+     * @param pcmOffset where to put the first sample in pcm
+     */
+    public void synthesize(double[] subbands, int[] pcm, int pcmOffset) {
+        offset = (offset - 64) & 1023;
+        // V[i] = X[16 + i] where X is the DCT-II, and X[32] = 0, X[64 - j] = -X[j], X[64 + j] = -X[j] fill in the indexes past 31
+        dct(subbands, dct, 32);
+        for (int i = 0; i < 16; i++) {
+            v[(offset + i) & 1023] = dct[16 + i];
+            v[(offset + 48 + i) & 1023] = -dct[i];
+        }
+        v[(offset + 16) & 1023] = 0;
+        for (int i = 17; i < 48; i++) {
+            v[(offset + i) & 1023] = -dct[48 - i];
+        }
+        for (int j = 0; j < 32; j++) {
+            double sum = 0;
+            for (int q = 0; q < 8; q++) {
+                sum += v[(offset + q * 128 + j) & 1023] * window[q * 64 + j];
+                sum += v[(offset + q * 128 + 96 + j) & 1023] * window[q * 64 + 32 + j];
+            }
+            pcm[pcmOffset + j] = toPCM(sum);
+        }
+    }
+
+    /**
+     * DCT-II without any scaling, out[i] = sum of in[k] * cos(i(2k + 1) pi / 2n). The even outputs are the DCT of the sums of mirrored inputs,
+     * the odd outputs come from the DCT of their scaled differences with neighbours added together.
+     * @param n size, a power of 2 up to 32
+     */
+    private void dct(double[] in, double[] out, int n) {
+        if (n == 1) {
+            out[0] = in[0];
+            return;
+        }
+        int half = n / 2;
+        double[] even = evens[n];
+        double[] odd = odds[n];
+        double[] scales = dctScales[n];
+        for (int k = 0; k < half; k++) {
+            double a = in[k];
+            double b = in[n - 1 - k];
+            even[k] = a + b;
+            odd[k] = (a - b) * scales[k];
+        }
+        double[] evenResult = evenOut[n];
+        double[] oddResult = oddOut[n];
+        dct(even, evenResult, half);
+        dct(odd, oddResult, half);
+        for (int m = 0; m < half - 1; m++) {
+            out[2 * m] = evenResult[m];
+            out[2 * m + 1] = oddResult[m] + oddResult[m + 1];
+        }
+        out[n - 2] = evenResult[half - 1];
+        out[n - 1] = oddResult[half - 1];
+    }
+
+    /**
+     * Forgets the samples from earlier frames, for when the audio jumps somewhere else.
+     */
+    public void reset() {
+        Arrays.fill(v, 0);
+        offset = 0;
+    }
+
+    private static int toPCM(double sample) {
+        long val = Math.round(sample * 32768);
+        return (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, val));
+    }
+
+}
@@ -0,0 +1,168 @@
+package audiovisualizer.mp3.decoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import audiovisualizer.mp3.MP3Header;
+import audiovisualizer.mp3.MP3Header.Layer;
+import audiovisualizer.mp3.VBRHeader;
+import audiovisualizer.mp3.VBRHeader.Kind;
+
+/**
+ * Looks for a Xing, Info or VBRI tag in the first frame of an MP3, and the LAME tag after a Xing tag.
+ * The Xing tag comes right after the side info and the VBRI tag is always 32 bytes after the header. <p>
+ * {@link} http://gabriel.mp3-tech.org/mp3infotag.html
+ * {@link} https://www.codeproject.com/Articles/8295/MPEG-Audio-Frame-Header
+ */
+public class VBRHeaderReader {
+
+    private static final int xing = 'X' << 24 | 'i' << 16 | 'n' << 8 | 'g';
+    private static final int info = 'I' << 24 | 'n' << 16 | 'f' << 8 | 'o';
+    private static final int vbri = 'V' << 24 | 'B' << 16 | 'R' << 8 | 'I';
+    /**Encoders that write the LAME tag, LAME itself and ffmpeg*/
+    private static final int[] lameEncoders = {
+        'L' << 24 | 'A' << 16 | 'M' << 8 | 'E',
+        'L' << 24 | 'a' << 16 | 'v' << 8 | 'f',
+        'L' << 24 | 'a' << 16 | 'v' << 8 | 'c'
+    };
+    private static final int tocPoints = 100;
+
+    private final HeaderDecoder headerDecoder = new HeaderDecoder();
+
+    /**
+     * Reads the tag of a file, if it has one.
+     * @return the tag, or null if there isn't one
+     */
+    public VBRHeader read(File file) {
+        try {
+            return readFromStart(BitReader.open(file));
+        } catch (IOException e) {
+            System.out.println("MP3 tag reading error with file " + file.getAbsolutePath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Skips any ID3v2 tags at the start of the stream and reads the tag in the first frame.
+     * @return the tag, or null if there isn't one
+     */
+    public VBRHeader readFromStart(BitReader stream) {
+        stream.position(0);
+        ID3Reader.skip(stream);
+        return read(stream);
+    }
+
+    /**
+     * Looks for a tag in the frame at the stream's position. If there's one the stream is left at the frame after it, since the frame
+     * with the tag has no audio, otherwise the stream doesn't move.
+     * @return the tag, or null if there isn't one
+     */
+    public VBRHeader read(BitReader stream) {
+        long offset = stream.position();
+        VBRHeader tag = null;
+        MP3Header header = null;
+        if (HeaderDecoder.isSyncWord(stream.peekBits(16))) {
+            stream.skip(1);
+            try {
+                header = headerDecoder.readFrameHeader(stream);
+                if (header.layer() == Layer.LAYER3 && header.frameLength() > 0) tag = readTag(stream, offset, header);
+            } catch (StreamCorruptedException e) {
+                // Not a frame so there's no tag
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        stream.position(tag != null ? Math.min(offset + header.frameLength(), stream.length()) : offset);
+        return tag;
+    }
+
+    private VBRHeader readTag(BitReader stream, long offset, MP3Header header) {
+        long xingStart = offset + 4 + (header.errorProtection() ? 2 : 0) + Layer3Decoder.sideInfoLength(header);
+        long vbriStart = offset + 4 + 32;
+        if (xingStart + 8 <= stream.length()) {
+            stream.position(xingStart);
+            int id = stream.readNBits(32);
+            if (id == xing || id == info) return readXing(stream, offset, header, id == xing ? Kind.XING : Kind.INFO);
+        }
+        if (vbriStart + 26 <= stream.length()) {
+            stream.position(vbriStart);
+            if (stream.readNBits(32) == vbri) return readVBRI(stream, offset, header);
+        }
+        return null;
+    }
+
+    /**
+     * Flags say which of the frame count, byte count, table of contents and quality are there, in that order.
+     * The table of contents has 100 entries out of 256 of how far through the bytes each percent of the time is.
+     */
+    private VBRHeader readXing(BitReader stream, long offset, MP3Header header, Kind kind) {
+        int flags = stream.readNBits(32);
+        int frames = (flags & 1) != 0 ? stream.readNBits(32) : -1;
+        long bytes = (flags & 2) != 0 ? stream.readNBits(32) & 0xFFFFFFFFL : -1;
+        long[] toc = new long[0];
+        if ((flags & 4) != 0) {
+            toc = new long[tocPoints];
+            for (int i = 0; i < tocPoints; i++) {
+                toc[i] = stream.readNBits(8);
+            }
+            if (bytes > 0) {
+                for (int i = 0; i < tocPoints; i++) {
+                    toc[i] = toc[i] * bytes / 256;
+                }
+            } else {
+                toc = new long[0];
+            }
+        }
+        if ((flags & 8) != 0) stream.readNBits(32); // Quality
+        int delay = -1;
+        int padding = -1;
+        long lameStart = stream.position();
+        if (lameStart + 24 <= stream.length() && isLameEncoder(stream.readNBits(32))) {
+            stream.position(lameStart + 21);
+            int delayAndPadding = stream.readNBits(24); // 12 bits each
+            delay = delayAndPadding >>> 12;
+            padding = delayAndPadding & 0xFFF;
+        }
+        return new VBRHeader(kind, offset, header.sampleRate(), header.samplesPerFrame(), frames, bytes, toc, delay, padding);
+    }
+
+    /**
+     * The VBRI table has the number of bytes in each run of frames, that gets turned into the same evenly spaced table as a Xing tag.
+     */
+    private VBRHeader readVBRI(BitReader stream, long offset, MP3Header header) {
+        stream.readNBits(16); // Version
+        stream.readNBits(16); // Delay
+        stream.readNBits(16); // Quality
+        long bytes = stream.readNBits(32) & 0xFFFFFFFFL;
+        int frames = stream.readNBits(32);
+        int entries = stream.readNBits(16);
+        int scale = stream.readNBits(16);
+        int entrySize = stream.readNBits(16);
+        int framesPerEntry = stream.readNBits(16);
+        long[] toc = new long[0];
+        if (entries > 0 && frames > 0 && framesPerEntry > 0 && entrySize >= 1 && entrySize <= 4
+                && stream.position() + (long) entries * entrySize <= stream.length()) {
+            long[] entryStarts = new long[entries + 1]; // Bytes before each run of frames
+            for (int i = 0; i < entries; i++) {
+                entryStarts[i + 1] = entryStarts[i] + (stream.readNBits(entrySize * 8) & 0xFFFFFFFFL) * scale;
+            }
+            toc = new long[tocPoints];
+            for (int i = 0; i < tocPoints; i++) {
+                double entry = Math.min((double) i * frames / tocPoints / framesPerEntry, entries);
+                int whole = Math.min((int) entry, entries - 1);
+                toc[i] = entryStarts[whole] + (long) ((entryStarts[whole + 1] - entryStarts[whole]) * (entry - whole));
+            }
+        }
+        return new VBRHeader(Kind.VBRI, offset, header.sampleRate(), header.samplesPerFrame(), frames, bytes, toc, -1, -1);
+    }
+
+    private boolean isLameEncoder(int id) {
+        for (int encoder : lameEncoders) {
+            if (id == encoder) return true;
+        }
+        return false;
+    }
+
+}
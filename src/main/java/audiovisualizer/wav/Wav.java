@@ -1,6 +1,7 @@
 package audiovisualizer.wav;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.function.Supplier;
 
 public record WAV(
@@ -12,7 +13,7 @@ public record WAV(
     int byteRate,
     short blockAlign, 
     int bitsPerSample,
-    byte[] data
+    ByteBuffer data // Read only little endian view of the data chunk, memory mapped if the decoder was asked to.
 
 ) implements Supplier<File> {
     public File get() {
@@ -6,6 +6,9 @@ import java.io.IOException;
 import java.io.StreamCorruptedException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 /**
  * {@link} http://soundfile.sapp.org/doc/WaveFormat/
@@ -21,7 +24,20 @@ public class WavDecoder {
     private int byteRate = 96000;
     private short blockAlign = 2;
     private int bitsPerSample= 16;
-    private byte[] data = new byte[0];
+    private ByteBuffer data = ByteBuffer.allocate(0);
+    private final boolean memoryMapped;
+
+    public WavDecoder() {
+        this(false);
+    }
+
+    /**
+     * @param memoryMapped if true the data chunk gets memory mapped instead of copied onto the heap so opening a file
+     * takes about the same time and memory no matter how long it is. Only the first 2 GB of audio can be mapped.
+     */
+    public WavDecoder(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
 
     public WAV decode(File file) {
         try {
@@ -29,6 +45,8 @@ public class WavDecoder {
             readWavFile(stream);
             stream.close();
             return new WAV(file, audioFormat, numChannels, sampleRate, byteRate, blockAlign, bitsPerSample, data);
+        } catch (ClosedByInterruptException e) {
+            throw new IllegalStateException("Interrupted while decoding.", e);
         } catch (IOException e) {
             System.out.println("Error decoding WAV file.");
             e.printStackTrace();
@@ -95,8 +113,17 @@ public class WavDecoder {
             }
             break;
         }        
-        int chunkSize = ByteBuffer.wrap(stream.readNBytes(4)).order(ByteOrder.LITTLE_ENDIAN).getInt();
-        data = stream.readNBytes(chunkSize);
+        long chunkSize = Integer.toUnsignedLong(ByteBuffer.wrap(stream.readNBytes(4)).order(ByteOrder.LITTLE_ENDIAN).getInt());
+        FileChannel channel = stream.getChannel();
+        long position = channel.position();
+        chunkSize = Math.min(chunkSize, channel.size() - position); // recorders that got cut off can leave a bigger size than what's actually there
+        chunkSize = Math.min(chunkSize, Integer.MAX_VALUE - Integer.MAX_VALUE % Math.max(blockAlign, 1)); // buffers can only hold 2 GB, keep whole blocks
+        if (memoryMapped) {
+            data = channel.map(MapMode.READ_ONLY, position, chunkSize);
+        } else {
+            data = ByteBuffer.wrap(stream.readNBytes((int) chunkSize));
+        }
+        data = data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
     }
     
 }
\ No newline at end of file